@@ -0,0 +1,85 @@
+package texteditor.benchmark;
+
+import texteditor.TextEditorModel;
+import texteditor.location.Location;
+import texteditor.storage.StorageType;
+
+import java.util.Random;
+
+/**
+ * Synthetic documents for the benchmarks. The same size always gives the same text: lines of
+ * 20 to 100 characters made of common words, so one character is one byte.
+ */
+final class Documents
+{
+    private static final String[] WORDS = {
+            "the", "quick", "brown", "fox", "jumps", "over", "lazy", "dog", "editor", "line",
+            "text", "model", "undo", "storage", "paint", "cursor", "select", "insert", "delete", "lorem"
+    };
+
+    private Documents()
+    {
+    }
+
+    /**
+     * Parses sizes such as "1KB", "1MB" or "100MB".
+     */
+    static int parseSize(String size)
+    {
+        if(size.endsWith("MB")) return Integer.parseInt(size.substring(0, size.length() - 2)) * 1024 * 1024;
+        if(size.endsWith("KB")) return Integer.parseInt(size.substring(0, size.length() - 2)) * 1024;
+        return Integer.parseInt(size);
+    }
+
+    static String generate(int size)
+    {
+        Random random = new Random(42);
+        StringBuilder text = new StringBuilder(size + 128);
+
+        while(text.length() < size)
+        {
+            int lineEnd = text.length() + 20 + random.nextInt(80);
+            while(text.length() < lineEnd)
+            {
+                text.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+            }
+
+            text.setCharAt(text.length() - 1, '\n');
+        }
+
+        text.setLength(size);
+        return text.toString();
+    }
+
+    static TextEditorModel createModel(String text, String storage)
+    {
+        return new TextEditorModel(text, StorageType.valueOf(storage).create());
+    }
+
+    /**
+     * A location in the middle of the document, at the start of a line.
+     */
+    static Location middle(TextEditorModel model)
+    {
+        return new Location(model.getLines().size() / 2, 0);
+    }
+
+    /**
+     * The location the given number of characters after a location, counting line breaks as one
+     * character, or the end of the document if it is closer.
+     */
+    static Location advance(TextEditorModel model, Location location, int characters)
+    {
+        var lines = model.getLines();
+        int row = location.row;
+        int column = location.column + characters;
+
+        while(column > lines.get(row).length() && row + 1 < lines.size())
+        {
+            column -= lines.get(row).length() + 1;
+            row++;
+        }
+
+        return new Location(row, Math.min(column, lines.get(row).length()));
+    }
+}
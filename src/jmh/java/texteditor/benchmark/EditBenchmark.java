@@ -0,0 +1,82 @@
+package texteditor.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import texteditor.TextEditorModel;
+import texteditor.location.Location;
+import texteditor.location.LocationRange;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Edits that change the document. Every iteration starts from a fresh copy of the document and
+ * makes a batch of BATCH edits in its middle, so the document does not drift away from its size
+ * while being measured. Scores, including gc.alloc.rate.norm, are per batch.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 20, batchSize = EditBenchmark.BATCH)
+@Measurement(iterations = 20, batchSize = EditBenchmark.BATCH)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class EditBenchmark
+{
+    static final int BATCH = 128;
+
+    @Param({"1KB", "1MB", "100MB"})
+    public String size;
+
+    @Param({"PIECE_TABLE", "LINE_LIST", "ROPE"})
+    public String storage;
+
+    private String text;
+    private TextEditorModel model;
+
+    @Setup(Level.Trial)
+    public void createText()
+    {
+        text = Documents.generate(Documents.parseSize(size));
+    }
+
+    @Setup(Level.Iteration)
+    public void createModel()
+    {
+        model = Documents.createModel(text, storage);
+        model.setCursorLocation(Documents.middle(model));
+    }
+
+    @Benchmark
+    public void insertChar()
+    {
+        model.insert('x');
+    }
+
+    @Benchmark
+    public void insertString()
+    {
+        model.insert("inserted text\nacross two lines ");
+    }
+
+    @Benchmark
+    public void deleteBefore()
+    {
+        model.deleteBefore();
+    }
+
+    @Benchmark
+    public void deleteRange()
+    {
+        Location start = Documents.middle(model);
+        model.deleteRange(new LocationRange(start, Documents.advance(model, start, 4)));
+    }
+}
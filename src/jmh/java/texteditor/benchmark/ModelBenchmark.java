@@ -0,0 +1,81 @@
+package texteditor.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import texteditor.TextEditorModel;
+import texteditor.location.Location;
+import texteditor.location.LocationRange;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Model operations that leave the document as it was, or switch it between two fixed versions.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ModelBenchmark
+{
+    @Param({"1KB", "1MB", "100MB"})
+    public String size;
+
+    @Param({"PIECE_TABLE", "LINE_LIST", "ROPE"})
+    public String storage;
+
+    private TextEditorModel model;
+    private List<String> original;
+    private List<String> modified;
+    private boolean showingModified;
+
+    @Setup(Level.Trial)
+    public void createModel()
+    {
+        model = Documents.createModel(Documents.generate(Documents.parseSize(size)), storage);
+
+        // The middle half of the document is selected.
+        int lineCount = model.getLines().size();
+        model.setSelectionRange(new LocationRange(new Location(lineCount / 4, 0), new Location(lineCount * 3 / 4, 0)));
+
+        // The second version differs in every hundredth line.
+        original = new ArrayList<>(model.getLines());
+        modified = new ArrayList<>(original);
+        for(int row = 0; row < modified.size(); row += 100)
+        {
+            modified.set(row, modified.get(row) + " modified");
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void clearHistory()
+    {
+        model.getUndoManager().clear();
+    }
+
+    @Benchmark
+    public String getSelectedText()
+    {
+        return model.getSelectedText();
+    }
+
+    @Benchmark
+    public void modifyLines()
+    {
+        showingModified = !showingModified;
+        model.modifyLines(showingModified ? modified : original);
+    }
+}
@@ -0,0 +1,93 @@
+package texteditor.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import texteditor.TextEditor;
+import texteditor.TextEditorModel;
+import texteditor.location.Location;
+import texteditor.location.LocationRange;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Painting an 800x600 viewport in the middle of the document into an offscreen image, with the
+ * cursor and a few selected lines on screen. Runs headless, so no display is needed.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g", "-Djava.awt.headless=true"})
+public class PaintBenchmark
+{
+    private static final int WIDTH = 800;
+    private static final int HEIGHT = 600;
+
+    @Param({"1KB", "1MB", "100MB"})
+    public String size;
+
+    @Param({"PIECE_TABLE", "LINE_LIST", "ROPE"})
+    public String storage;
+
+    private TextEditor editor;
+    private BufferedImage image;
+    private int viewY;
+
+    @Setup(Level.Trial)
+    public void createEditor()
+    {
+        TextEditorModel model = Documents.createModel(Documents.generate(Documents.parseSize(size)), storage);
+        editor = new TextEditor(model);
+        editor.setSize(WIDTH, editor.getPreferredSize().height);
+
+        Location middle = Documents.middle(model);
+        Location selectionEnd = Documents.advance(model, middle, 200);
+        model.setSelectionRange(new LocationRange(middle, selectionEnd));
+        model.setCursorLocation(selectionEnd);
+
+        int rowHeight = editor.getFontMetrics(editor.getFont()).getHeight();
+        viewY = Math.max(0, middle.row * rowHeight - HEIGHT / 2);
+        image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+    }
+
+    @TearDown(Level.Trial)
+    public void flushImage()
+    {
+        image.flush();
+    }
+
+    @Benchmark
+    public BufferedImage paintComponent()
+    {
+        Graphics2D g = image.createGraphics();
+
+        try
+        {
+            // Only the viewport is painted, as it would be inside the scroll pane.
+            g.translate(0, -viewY);
+            g.setClip(0, viewY, WIDTH, HEIGHT);
+            g.setFont(editor.getFont());
+            editor.paintComponent(g);
+        }
+        finally
+        {
+            g.dispose();
+        }
+
+        return image;
+    }
+}
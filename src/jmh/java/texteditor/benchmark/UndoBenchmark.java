@@ -0,0 +1,67 @@
+package texteditor.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import texteditor.TextEditorModel;
+import texteditor.UndoManager;
+import texteditor.location.Location;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Undoing a chain of CHAIN edits and redoing it again, which leaves the document as it was.
+ * Scores are per single undo or redo.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class UndoBenchmark
+{
+    private static final int CHAIN = 100;
+
+    @Param({"1KB", "1MB", "100MB"})
+    public String size;
+
+    @Param({"PIECE_TABLE", "LINE_LIST", "ROPE"})
+    public String storage;
+
+    private UndoManager undoManager;
+
+    @Setup(Level.Trial)
+    public void createChain()
+    {
+        TextEditorModel model = Documents.createModel(Documents.generate(Documents.parseSize(size)), storage);
+        Location middle = Documents.middle(model);
+
+        // Inserted text is never merged with the previous edit, so every insertion is one step.
+        for(int i = 0; i < CHAIN; i++)
+        {
+            model.setCursorLocation(new Location(middle.row + i % 2, 0));
+            model.insert("edit " + i + "\n");
+        }
+
+        undoManager = model.getUndoManager();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(2 * CHAIN)
+    public void undoRedoChain()
+    {
+        for(int i = 0; i < CHAIN; i++) undoManager.undo();
+        for(int i = 0; i < CHAIN; i++) undoManager.redo();
+    }
+}
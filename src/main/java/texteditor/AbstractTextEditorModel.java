@@ -2,30 +2,59 @@ package texteditor;
 
 import texteditor.location.Location;
 import texteditor.location.LocationRange;
+import texteditor.metrics.EditorMetrics;
+import texteditor.metrics.FanOutCounter;
 import texteditor.observer.CursorObserver;
 import texteditor.observer.SelectionObserver;
+import texteditor.observer.TextChangeEvent;
+import texteditor.observer.TextChangeObserver;
 import texteditor.observer.TextObserver;
+import texteditor.storage.TextStorage;
 
 import java.util.ArrayList;
 import java.util.List;
 
 public abstract class AbstractTextEditorModel
 {
-    protected List<String> lines = new ArrayList<>();
+    private static final FanOutCounter CURSOR_FAN_OUT = EditorMetrics.fanOut("model.cursor");
+    private static final FanOutCounter TEXT_FAN_OUT = EditorMetrics.fanOut("model.text");
+    private static final FanOutCounter SELECTION_FAN_OUT = EditorMetrics.fanOut("model.selection");
+
+    protected TextStorage storage;
     protected Location cursorLocation = new Location(0, 0);
     protected LocationRange selectionRange = new LocationRange(new Location(0, 0), new Location(0, 0));
 
     private List<CursorObserver> cursorObservers = new ArrayList<>();
-    private List<TextObserver> textObservers = new ArrayList<>();
+    private List<TextChangeObserver> textObservers = new ArrayList<>();
+    private TextChangeEvent pendingChange;
+    private long version;
+
+    private int editDepth;
+    private boolean cursorChanged;
+    private boolean selectionChanged;
     private List<SelectionObserver> selectionObservers = new ArrayList<>();
 
+    protected AbstractTextEditorModel(TextStorage storage)
+    {
+        setStorage(storage);
+    }
+
     //==================================================================
     //                          Getters
     //==================================================================
 
     public List<String> getLines()
     {
-        return lines;
+        return storage.getLines();
+    }
+
+    /**
+     * Returns the characters of a line without copying them where the storage allows it.
+     * The sequence must be read before the text changes again.
+     */
+    public CharSequence getLineChars(int row)
+    {
+        return storage.getLineChars(row);
     }
 
     public Location getCursorLocation()
@@ -38,13 +67,49 @@ public abstract class AbstractTextEditorModel
         return selectionRange;
     }
 
+    /**
+     * Returns a number that changes whenever the text changes.
+     */
+    public long getVersion()
+    {
+        return version;
+    }
+
     //==================================================================
     //                          Setters
     //==================================================================
 
     public void setLines(List<String> lines)
     {
-        this.lines = lines;
+        storage.setLines(lines);
+    }
+
+    public void setStorage(TextStorage storage)
+    {
+        if(this.storage != null) this.storage.setAppendListener(null);
+
+        this.storage = storage;
+        storage.setAppendListener(this::onLinesAppended);
+    }
+
+    private void onLinesAppended(int previousLineCount)
+    {
+        Location start = new Location(0, 0);
+
+        if(previousLineCount > 0)
+        {
+            int lastRow = previousLineCount - 1;
+            start = new Location(lastRow, storage.getLineLength(lastRow));
+        }
+
+        recordChange(new TextChangeEvent(start, start, documentEnd(), 0, TextChangeEvent.UNKNOWN_LENGTH));
+        notifyTextObservers();
+    }
+
+    protected Location documentEnd()
+    {
+        int lastRow = storage.getLineCount() - 1;
+        return new Location(lastRow, storage.getLineLength(lastRow));
     }
 
     public void setCursorLocation(Location location)
@@ -57,6 +122,26 @@ public abstract class AbstractTextEditorModel
         selectionRange = range;
     }
 
+    //==================================================================
+    //                  Batching notifications
+    //==================================================================
+
+    protected void beginEdit()
+    {
+        editDepth++;
+    }
+
+    // Observers hear about everything that happened inside the outermost edit exactly once, text first.
+    protected void endEdit()
+    {
+        if(--editDepth > 0) return;
+
+        notifyTextObservers();
+
+        if(selectionChanged) notifySelectionObservers();
+        if(cursorChanged) notifyCursorObservers();
+    }
+
     //==================================================================
     //                       Cursor observers
     //==================================================================
@@ -73,6 +158,10 @@ public abstract class AbstractTextEditorModel
 
     protected void notifyCursorObservers()
     {
+        cursorChanged = editDepth > 0;
+        if(cursorChanged) return;
+
+        CURSOR_FAN_OUT.record(cursorObservers.size());
         for (var observer : cursorObservers)
         {
             observer.updateCursorLocation(cursorLocation.clone());
@@ -93,11 +182,34 @@ public abstract class AbstractTextEditorModel
         textObservers.remove(observer);
     }
 
+    public void addTextChangeObserver(TextChangeObserver observer)
+    {
+        textObservers.add(observer);
+    }
+
+    public void removeTextChangeObserver(TextChangeObserver observer)
+    {
+        textObservers.remove(observer);
+    }
+
+    // Changes are collected until the next notification so that one user action produces a single event.
+    protected void recordChange(TextChangeEvent change)
+    {
+        version++;
+        pendingChange = pendingChange == null ? change : pendingChange.merge(change);
+    }
+
     protected void notifyTextObservers()
     {
+        if(pendingChange == null || editDepth > 0) return;
+
+        TextChangeEvent change = pendingChange;
+        pendingChange = null;
+
+        TEXT_FAN_OUT.record(textObservers.size());
         for (var observer : textObservers)
         {
-            observer.updateText();
+            observer.onTextChanged(change);
         }
     }
 
@@ -117,6 +229,10 @@ public abstract class AbstractTextEditorModel
 
     protected void notifySelectionObservers()
     {
+        selectionChanged = editDepth > 0;
+        if(selectionChanged) return;
+
+        SELECTION_FAN_OUT.record(selectionObservers.size());
         for (var observer : selectionObservers)
         {
             observer.onSelectionChanged();
@@ -0,0 +1,46 @@
+package texteditor;
+
+import texteditor.io.UndoSpillFile;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class CompoundEditAction implements EditAction
+{
+    private final List<EditAction> actions;
+
+    public CompoundEditAction(List<EditAction> actions)
+    {
+        this.actions = new ArrayList<>(actions);
+    }
+
+    @Override
+    public void executeDo()
+    {
+        for(EditAction action : actions)
+            action.executeDo();
+    }
+
+    @Override
+    public void executeUndo()
+    {
+        for(int i = actions.size() - 1; i >= 0; i--)
+            actions.get(i).executeUndo();
+    }
+
+    @Override
+    public long estimateSize()
+    {
+        long size = 64;
+        for(EditAction action : actions) size += action.estimateSize();
+        return size;
+    }
+
+    @Override
+    public void spill(UndoSpillFile file) throws IOException
+    {
+        for(EditAction action : actions)
+            action.spill(file);
+    }
+}
@@ -0,0 +1,328 @@
+package texteditor;
+
+import texteditor.observer.StatisticsObserver;
+import texteditor.observer.TextChangeEvent;
+import texteditor.storage.TextStorage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Keeps the line, word and letter counts of a document up to date as it is edited. Every line's
+ * counts are remembered, so a change only recounts the lines it touched and the totals can be
+ * read at any time without walking the document. Large insertions, such as opening a file, are
+ * counted a chunk at a time on the given executor, and the totals grow until they are complete.
+ * A lazy storage, such as a mapped file, is only counted once that is asked for with count.
+ */
+public class DocumentStatistics
+{
+    private static final int CHUNK_LINES = 16384;
+    private static final long UNCOUNTED = -1;
+
+    private final AbstractTextEditorModel model;
+    private final Executor executor;
+    private final LineCounts lineCounts = new LineCounts();
+    private long words;
+    private long letters;
+
+    // Lines still waiting to be counted. All lines before scanRow have been counted.
+    private int uncounted;
+    private int scanRow;
+    private boolean chunkScheduled;
+
+    // Counting reads every line, which for a lazy storage means decoding the whole file.
+    private TextStorage countedStorage;
+    private boolean deferred;
+
+    private List<StatisticsObserver> observers = new ArrayList<>();
+
+    DocumentStatistics(AbstractTextEditorModel model, Executor executor)
+    {
+        this.model = model;
+        this.executor = executor;
+
+        recount();
+        model.addTextChangeObserver(this::onTextChanged);
+    }
+
+    public int getLineCount()
+    {
+        return lineCounts.size();
+    }
+
+    public long getWordCount()
+    {
+        return words;
+    }
+
+    public long getLetterCount()
+    {
+        return letters;
+    }
+
+    /**
+     * Returns true while some lines have not been counted yet.
+     */
+    public boolean isCounting()
+    {
+        return uncounted > 0;
+    }
+
+    /**
+     * Returns false while the lines of a lazy storage have not been asked to be counted. The totals are zero until then.
+     */
+    public boolean isAvailable()
+    {
+        return !deferred;
+    }
+
+    /**
+     * Starts counting the lines of a lazy storage. Does nothing if they are already being counted.
+     */
+    public void count()
+    {
+        if(!deferred) return;
+
+        deferred = false;
+        insertRows(0, model.getLines().size());
+        notifyObservers();
+    }
+
+    private void onTextChanged(TextChangeEvent event)
+    {
+        int lineCount = model.getLines().size();
+        int start = event.getStart().row;
+        int removed = event.getLinesRemoved() + 1;
+        int inserted = event.getLinesInserted() + 1;
+
+        if(model.storage != countedStorage)
+        {
+            recount();
+        }
+        else if(deferred)
+        {
+            return;
+        }
+        else if(start + removed > lineCounts.size() || lineCounts.size() - removed + inserted != lineCount)
+        {
+            // The event does not fit what we have seen so far; start over rather than drift.
+            recount();
+        }
+        else
+        {
+            for(int row = start; row < start + removed; row++)
+            {
+                long counts = lineCounts.get(row);
+                if(counts == UNCOUNTED)
+                {
+                    uncounted--;
+                    continue;
+                }
+
+                words -= wordsOf(counts);
+                letters -= lettersOf(counts);
+            }
+
+            lineCounts.delete(start, start + removed);
+            scanRow = Math.min(scanRow, start);
+            insertRows(start, inserted);
+        }
+
+        notifyObservers();
+    }
+
+    private void recount()
+    {
+        lineCounts.clear();
+        words = 0;
+        letters = 0;
+        uncounted = 0;
+        scanRow = 0;
+
+        countedStorage = model.storage;
+        deferred = countedStorage.isLazy();
+        if(!deferred) insertRows(0, model.getLines().size());
+    }
+
+    private void insertRows(int start, int count)
+    {
+        if(count <= CHUNK_LINES)
+        {
+            for(int row = start; row < start + count; row++)
+            {
+                lineCounts.insert(row, count(model.getLineChars(row)));
+            }
+            return;
+        }
+
+        lineCounts.insert(start, count, UNCOUNTED);
+        uncounted += count;
+        scheduleChunk();
+    }
+
+    private void scheduleChunk()
+    {
+        if(chunkScheduled) return;
+
+        chunkScheduled = true;
+        executor.execute(this::countChunk);
+    }
+
+    private void countChunk()
+    {
+        chunkScheduled = false;
+        if(uncounted == 0) return;
+
+        int budget = CHUNK_LINES;
+
+        for(; scanRow < lineCounts.size() && budget > 0; scanRow++)
+        {
+            if(lineCounts.get(scanRow) != UNCOUNTED) continue;
+
+            lineCounts.set(scanRow, count(model.getLineChars(scanRow)));
+            uncounted--;
+            budget--;
+        }
+
+        if(uncounted > 0) scheduleChunk();
+        notifyObservers();
+    }
+
+    // Adds the line to the totals and returns its word count in the upper and its letter count in the lower half.
+    private long count(CharSequence line)
+    {
+        int lineWords = 0;
+        int lineLetters = 0;
+        boolean inWord = false;
+
+        for(int i = 0; i < line.length(); i++)
+        {
+            char c = line.charAt(i);
+
+            if(Character.isWhitespace(c))
+            {
+                inWord = false;
+                continue;
+            }
+
+            if(!inWord) lineWords++;
+            inWord = true;
+
+            if(Character.isLetter(c)) lineLetters++;
+        }
+
+        words += lineWords;
+        letters += lineLetters;
+        return (long) lineWords << 32 | lineLetters;
+    }
+
+    private static int wordsOf(long counts)
+    {
+        return (int) (counts >>> 32);
+    }
+
+    private static int lettersOf(long counts)
+    {
+        return (int) counts;
+    }
+
+    //==================================================================
+    //                          Observers
+    //==================================================================
+
+    public void addObserver(StatisticsObserver observer)
+    {
+        observers.add(observer);
+    }
+
+    public void removeObserver(StatisticsObserver observer)
+    {
+        observers.remove(observer);
+    }
+
+    private void notifyObservers()
+    {
+        for(var observer : observers)
+            observer.onStatisticsChanged();
+    }
+
+    // Per-line counts in a gap buffer, since edits keep happening around the same rows.
+    private static class LineCounts
+    {
+        private static final int MIN_GAP = 64;
+
+        private long[] buffer = new long[MIN_GAP];
+        private int gapStart;
+        private int gapEnd = MIN_GAP;
+
+        int size()
+        {
+            return buffer.length - (gapEnd - gapStart);
+        }
+
+        long get(int index)
+        {
+            return index < gapStart ? buffer[index] : buffer[index + gapEnd - gapStart];
+        }
+
+        void set(int index, long counts)
+        {
+            buffer[index < gapStart ? index : index + gapEnd - gapStart] = counts;
+        }
+
+        void insert(int index, long counts)
+        {
+            insert(index, 1, counts);
+        }
+
+        void insert(int index, int count, long counts)
+        {
+            moveGap(index);
+
+            if(gapEnd - gapStart < count)
+            {
+                long[] grown = new long[Math.max(buffer.length * 2, size() + count + MIN_GAP)];
+                int tail = buffer.length - gapEnd;
+                System.arraycopy(buffer, 0, grown, 0, gapStart);
+                System.arraycopy(buffer, gapEnd, grown, grown.length - tail, tail);
+                gapEnd = grown.length - tail;
+                buffer = grown;
+            }
+
+            Arrays.fill(buffer, gapStart, gapStart + count, counts);
+            gapStart += count;
+        }
+
+        void delete(int start, int end)
+        {
+            moveGap(start);
+            gapEnd += end - start;
+        }
+
+        void clear()
+        {
+            gapStart = 0;
+            gapEnd = buffer.length;
+        }
+
+        private void moveGap(int index)
+        {
+            if(index < gapStart)
+            {
+                int count = gapStart - index;
+                System.arraycopy(buffer, index, buffer, gapEnd - count, count);
+                gapStart -= count;
+                gapEnd -= count;
+            }
+            else if(index > gapStart)
+            {
+                int count = index - gapStart;
+                System.arraycopy(buffer, gapEnd, buffer, gapStart, count);
+                gapStart += count;
+                gapEnd += count;
+            }
+        }
+    }
+}
@@ -1,7 +1,36 @@
 package texteditor;
 
+import texteditor.io.UndoSpillFile;
+
+import java.io.IOException;
+
 public interface EditAction
 {
     void executeDo();
     void executeUndo();
+
+    /**
+     * Tries to absorb an action that was performed right after this one.
+     * Returns true if this action now covers both and the other one can be dropped.
+     */
+    default boolean mergeWith(EditAction next)
+    {
+        return false;
+    }
+
+    /**
+     * Rough number of bytes this action keeps reachable.
+     */
+    default long estimateSize()
+    {
+        return 64;
+    }
+
+    /**
+     * Moves the bulky part of the action to the spill file. It is read back the next time
+     * the action is executed.
+     */
+    default void spill(UndoSpillFile file) throws IOException
+    {
+    }
 }
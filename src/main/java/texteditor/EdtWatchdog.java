@@ -0,0 +1,201 @@
+package texteditor;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Notices when the event dispatch thread stops processing events. A daemon thread keeps posting
+ * an empty event and, once one has waited longer than the threshold, samples the stack of the
+ * event dispatch thread until the event finally runs. Then it reports which frames of the editor
+ * were on the stack in most samples.
+ */
+class EdtWatchdog implements Runnable
+{
+    private static final String PACKAGE_PREFIX = "texteditor.";
+    private static final long MIN_SAMPLE_INTERVAL_MILLIS = 5;
+    private static final long MAX_SAMPLE_INTERVAL_MILLIS = 100;
+    private static final int MAX_REPORTED_FRAMES = 12;
+    private static final int MAX_REPORTED_TOP_FRAMES = 3;
+
+    private final long thresholdNanos;
+    private final long sampleIntervalMillis;
+    private final Consumer<String> reportSink;
+
+    private volatile Thread eventDispatchThread;
+    private volatile long answeredPing;
+    private volatile boolean running;
+    private Thread thread;
+
+    public EdtWatchdog(long thresholdMillis, Consumer<String> reportSink)
+    {
+        this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+        this.sampleIntervalMillis = Math.max(MIN_SAMPLE_INTERVAL_MILLIS, Math.min(MAX_SAMPLE_INTERVAL_MILLIS, thresholdMillis / 10));
+        this.reportSink = reportSink;
+    }
+
+    public void start()
+    {
+        if(running) return;
+
+        // Known right away when started on it, so that even a stall before the first answered ping is sampled.
+        if(EventQueue.isDispatchThread()) eventDispatchThread = Thread.currentThread();
+
+        running = true;
+        thread = new Thread(this, "EDT watchdog");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void stop()
+    {
+        running = false;
+        if(thread != null) thread.interrupt();
+    }
+
+    @Override
+    public void run()
+    {
+        long ping = 0;
+
+        try
+        {
+            while(running)
+            {
+                long sent = ++ping;
+                long sentAt = System.nanoTime();
+
+                EventQueue.invokeLater(() ->
+                {
+                    eventDispatchThread = Thread.currentThread();
+                    answeredPing = sent;
+                });
+
+                while(answeredPing < sent && System.nanoTime() - sentAt < thresholdNanos)
+                {
+                    Thread.sleep(sampleIntervalMillis);
+                }
+
+                if(answeredPing < sent) watchStall(sent, sentAt);
+                Thread.sleep(sampleIntervalMillis);
+            }
+        }
+        catch (InterruptedException e)
+        {
+            // Stopped.
+        }
+    }
+
+    // Samples until the ping is answered, so the stall is known to be at least as long as reported.
+    private void watchStall(long ping, long sentAt) throws InterruptedException
+    {
+        StallProfile profile = new StallProfile();
+        Thread edt = eventDispatchThread;
+
+        while(answeredPing < ping && running)
+        {
+            if(edt != null) profile.add(edt.getStackTrace());
+            Thread.sleep(sampleIntervalMillis);
+        }
+
+        long stallMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - sentAt);
+        reportSink.accept(profile.report(stallMillis));
+    }
+
+    //==================================================================
+    //                       Condensing samples
+    //==================================================================
+
+    private static final class StallProfile
+    {
+        private int samples;
+
+        // Samples in which a method of the editor was anywhere on the stack, and in which it was the innermost one.
+        private final Map<String, Integer> onStack = new HashMap<>();
+        private final Map<String, Integer> innermost = new HashMap<>();
+
+        // What the thread was doing at the very top, for stalls outside of the editor's code.
+        private final Map<String, Integer> topFrames = new HashMap<>();
+
+        void add(StackTraceElement[] stack)
+        {
+            samples++;
+            if(stack.length > 0) increment(topFrames, stack[0].toString());
+
+            Set<String> seen = new HashSet<>();
+            boolean foundInnermost = false;
+
+            for(StackTraceElement frame : stack)
+            {
+                if(!frame.getClassName().startsWith(PACKAGE_PREFIX)) continue;
+
+                String method = frame.getClassName() + "." + frame.getMethodName();
+                if(!foundInnermost)
+                {
+                    increment(innermost, method);
+                    foundInnermost = true;
+                }
+
+                if(seen.add(method)) increment(onStack, method);
+            }
+        }
+
+        String report(long stallMillis)
+        {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format("EDT stalled for at least %d ms (%d samples)%n", stallMillis, samples));
+            if(samples == 0) return sb.toString();
+
+            if(onStack.isEmpty())
+            {
+                sb.append("  no texteditor frames were on the stack\n");
+            }
+            else
+            {
+                // Callers that were always on the stack come first, then the innermost frames below them.
+                List<String> methods = new ArrayList<>(onStack.keySet());
+                methods.sort((a, b) -> onStack.get(a).equals(onStack.get(b))
+                        ? Integer.compare(innermost.getOrDefault(b, 0), innermost.getOrDefault(a, 0))
+                        : Integer.compare(onStack.get(b), onStack.get(a)));
+
+                sb.append(String.format("  %6s %6s  %s%n", "self", "total", "texteditor frame"));
+                for(String method : methods.subList(0, Math.min(MAX_REPORTED_FRAMES, methods.size())))
+                {
+                    sb.append(String.format("  %5.0f%% %5.0f%%  %s%n",
+                            percent(innermost.getOrDefault(method, 0)), percent(onStack.get(method)), method));
+                }
+            }
+
+            sb.append("  top of stack:\n");
+            for(String frame : mostFrequent(topFrames, MAX_REPORTED_TOP_FRAMES))
+            {
+                sb.append(String.format("  %5.0f%%  %s%n", percent(topFrames.get(frame)), frame));
+            }
+
+            return sb.toString();
+        }
+
+        private double percent(int count)
+        {
+            return 100.0 * count / samples;
+        }
+
+        private static void increment(Map<String, Integer> counts, String key)
+        {
+            counts.merge(key, 1, Integer::sum);
+        }
+
+        private static List<String> mostFrequent(Map<String, Integer> counts, int limit)
+        {
+            List<String> keys = new ArrayList<>(counts.keySet());
+            keys.sort((a, b) -> Integer.compare(counts.get(b), counts.get(a)));
+            return keys.subList(0, Math.min(limit, keys.size()));
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package texteditor;
+
+import texteditor.location.Location;
+import texteditor.location.LocationRange;
+import texteditor.search.MatchTooLongException;
+import texteditor.search.SearchQuery;
+
+import javax.swing.*;
+import java.awt.*;
+import java.util.regex.PatternSyntaxException;
+
+class FindReplaceDialog extends JDialog
+{
+    private final TextEditorModel model;
+    private final TextEditor editor;
+
+    private final JTextField findField = new JTextField(24);
+    private final JTextField replaceField = new JTextField(24);
+    private final JCheckBox regexBox = new JCheckBox("Regular expression");
+    private final JCheckBox matchCaseBox = new JCheckBox("Match case");
+    private final JLabel statusLabel = new JLabel(" ");
+
+    // Where the last empty match was found, so that searching again moves past it.
+    private Location lastEmptyMatch;
+
+    public FindReplaceDialog(Frame owner, TextEditorModel model, TextEditor editor)
+    {
+        super(owner, "Find and replace", false);
+        this.model = model;
+        this.editor = editor;
+
+        JPanel fields = new JPanel(new GridLayout(2, 2, 4, 4));
+        fields.add(new JLabel("Find:"));
+        fields.add(findField);
+        fields.add(new JLabel("Replace with:"));
+        fields.add(replaceField);
+
+        JPanel options = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        options.add(regexBox);
+        options.add(matchCaseBox);
+
+        JPanel buttons = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+        buttons.add(createButton("Find next", this::findNext));
+        buttons.add(createButton("Replace", this::replace));
+        buttons.add(createButton("Replace all", this::replaceAll));
+        buttons.add(createButton("Close", () -> setVisible(false)));
+
+        JPanel content = new JPanel();
+        content.setLayout(new BoxLayout(content, BoxLayout.Y_AXIS));
+        content.setBorder(BorderFactory.createEmptyBorder(8, 8, 8, 8));
+        content.add(fields);
+        content.add(options);
+        content.add(statusLabel);
+        content.add(buttons);
+
+        setContentPane(content);
+        getRootPane().setDefaultButton((JButton) buttons.getComponent(0));
+        pack();
+        setLocationRelativeTo(owner);
+    }
+
+    @Override
+    public void setVisible(boolean visible)
+    {
+        if(visible)
+        {
+            String selected = model.getSelectedText();
+            if(!selected.isEmpty() && selected.indexOf('\n') < 0) findField.setText(selected);
+            findField.selectAll();
+        }
+
+        super.setVisible(visible);
+    }
+
+    private JButton createButton(String text, Runnable action)
+    {
+        JButton button = new JButton(text);
+        button.addActionListener(e -> action.run());
+        return button;
+    }
+
+    private SearchQuery createQuery()
+    {
+        try
+        {
+            return new SearchQuery(findField.getText(), regexBox.isSelected(), matchCaseBox.isSelected());
+        }
+        catch (PatternSyntaxException e)
+        {
+            statusLabel.setText("Invalid expression: " + e.getDescription());
+        }
+        catch (IllegalArgumentException e)
+        {
+            statusLabel.setText("Nothing to search for.");
+        }
+
+        return null;
+    }
+
+    private void findNext()
+    {
+        SearchQuery query = createQuery();
+        if(query != null) findNext(query);
+    }
+
+    private void findNext(SearchQuery query)
+    {
+        try
+        {
+            find(query);
+        }
+        catch (MatchTooLongException e)
+        {
+            statusLabel.setText("Match too long.");
+        }
+    }
+
+    private void find(SearchQuery query)
+    {
+        LocationRange selection = model.getSelectionRange();
+        Location from = selection.isEmpty() ? model.getCursorLocation() : selection.getEnd();
+
+        if(from.equals(lastEmptyMatch)) from = nextPosition(from);
+        if(from == null) from = new Location(0, 0);
+
+        LocationRange match = model.find(query, from);
+        statusLabel.setText(" ");
+
+        if(match == null && (from.row != 0 || from.column != 0))
+        {
+            match = model.find(query, new Location(0, 0));
+            statusLabel.setText("Search wrapped to the start of the document.");
+        }
+
+        if(match == null)
+        {
+            lastEmptyMatch = null;
+            statusLabel.setText("Not found.");
+            return;
+        }
+
+        lastEmptyMatch = match.isEmpty() ? match.getStart() : null;
+        model.select(match);
+        editor.scrollToCursor();
+    }
+
+    private void replace()
+    {
+        SearchQuery query = createQuery();
+        if(query == null) return;
+
+        boolean[] replaced = new boolean[1];
+        model.edit(m -> replaced[0] = m.replaceSelection(query, replaceField.getText()));
+
+        findNext(query);
+        if(replaced[0] && statusLabel.getText().isBlank()) statusLabel.setText("Replaced one match.");
+    }
+
+    private void replaceAll()
+    {
+        SearchQuery query = createQuery();
+        if(query == null) return;
+
+        int[] count = new int[1];
+        lastEmptyMatch = null;
+
+        try
+        {
+            model.edit(m -> count[0] = m.replaceAll(query, replaceField.getText()));
+        }
+        catch (MatchTooLongException e)
+        {
+            statusLabel.setText("Match too long, nothing was replaced.");
+            return;
+        }
+
+        statusLabel.setText(count[0] == 0 ? "Not found." : "Replaced " + count[0] + (count[0] == 1 ? " match." : " matches."));
+    }
+
+    // The position one character further, or null at the end of the document.
+    private Location nextPosition(Location location)
+    {
+        var lines = model.getLines();
+
+        if(location.column < lines.get(location.row).length()) return new Location(location.row, location.column + 1);
+        if(location.row + 1 < lines.size()) return new Location(location.row + 1, 0);
+        return null;
+    }
+}
@@ -0,0 +1,235 @@
+package texteditor;
+
+import texteditor.io.UndoSpillFile;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Line-level difference between two versions of a document. Only the hunks of changed lines are kept;
+ * rows are given in the coordinates of the old document.
+ */
+public final class LineDelta
+{
+    private final int[] rows;
+    private final int[] oldCounts;
+    private final int[] newCounts;
+    private final SpillableLines oldLines;
+    private final SpillableLines newLines;
+    private LineDelta inverse;
+
+    private LineDelta(int[] rows, int[] oldCounts, int[] newCounts, SpillableLines oldLines, SpillableLines newLines)
+    {
+        this.rows = rows;
+        this.oldCounts = oldCounts;
+        this.newCounts = newCounts;
+        this.oldLines = oldLines;
+        this.newLines = newLines;
+    }
+
+    /**
+     * Compares the documents after trimming their common first and last lines. When the remaining
+     * parts have the same number of lines they are compared line by line, otherwise they form a single hunk.
+     */
+    public static LineDelta between(List<String> oldDocument, List<String> newDocument)
+    {
+        if(newDocument.isEmpty()) newDocument = List.of("");
+
+        int oldSize = oldDocument.size();
+        int newSize = newDocument.size();
+        int shorter = Math.min(oldSize, newSize);
+
+        int prefix = 0;
+        while(prefix < shorter && same(oldDocument.get(prefix), newDocument.get(prefix))) prefix++;
+
+        int suffix = 0;
+        while(suffix < shorter - prefix && same(oldDocument.get(oldSize - 1 - suffix), newDocument.get(newSize - 1 - suffix))) suffix++;
+
+        Builder builder = new Builder();
+        int oldEnd = oldSize - suffix;
+        int newEnd = newSize - suffix;
+
+        if(oldEnd != newEnd)
+        {
+            builder.add(prefix, oldDocument.subList(prefix, oldEnd), newDocument.subList(prefix, newEnd));
+            return builder.build();
+        }
+
+        for(int row = prefix; row < oldEnd; )
+        {
+            if(same(oldDocument.get(row), newDocument.get(row)))
+            {
+                row++;
+                continue;
+            }
+
+            int start = row;
+            while(row < oldEnd && !same(oldDocument.get(row), newDocument.get(row))) row++;
+            builder.add(start, oldDocument.subList(start, row), newDocument.subList(start, row));
+        }
+
+        return builder.build();
+    }
+
+    private static boolean same(String a, String b)
+    {
+        return a == b || a.equals(b);
+    }
+
+    //==================================================================
+    //                          Getters
+    //==================================================================
+
+    public boolean isEmpty()
+    {
+        return rows.length == 0;
+    }
+
+    public int getHunkCount()
+    {
+        return rows.length;
+    }
+
+    public int getRow(int hunk)
+    {
+        return rows[hunk];
+    }
+
+    public int getOldLineCount(int hunk)
+    {
+        return oldCounts[hunk];
+    }
+
+    public int getNewLineCount(int hunk)
+    {
+        return newCounts[hunk];
+    }
+
+    /**
+     * Returns the delta that turns the new document back into the old one.
+     */
+    public LineDelta inverse()
+    {
+        if(inverse != null) return inverse;
+
+        int[] newRows = new int[rows.length];
+        int shift = 0;
+
+        for(int i = 0; i < rows.length; i++)
+        {
+            newRows[i] = rows[i] + shift;
+            shift += newCounts[i] - oldCounts[i];
+        }
+
+        inverse = new LineDelta(newRows, newCounts, oldCounts, newLines, oldLines);
+        inverse.inverse = this;
+        return inverse;
+    }
+
+    /**
+     * Applies the hunks to the given consumer, last hunk first, so the rows of the remaining hunks stay valid.
+     */
+    public void apply(HunkConsumer consumer)
+    {
+        List<String> replacement = newLines.get();
+        int offset = replacement.size();
+
+        for(int i = rows.length - 1; i >= 0; i--)
+        {
+            offset -= newCounts[i];
+            consumer.replace(rows[i], rows[i] + oldCounts[i], replacement.subList(offset, offset + newCounts[i]));
+        }
+    }
+
+    public interface HunkConsumer
+    {
+        void replace(int start, int end, List<String> lines);
+    }
+
+    //==================================================================
+    //                      Undo history support
+    //==================================================================
+
+    long estimateSize()
+    {
+        return 64 + 12L * rows.length + oldLines.estimateSize() + newLines.estimateSize();
+    }
+
+    void spill(UndoSpillFile file) throws IOException
+    {
+        oldLines.spill(file);
+        newLines.spill(file);
+    }
+
+    //==================================================================
+    //                          Builder
+    //==================================================================
+
+    public static class Builder
+    {
+        private int[] rows = new int[8];
+        private int[] oldCounts = new int[8];
+        private int[] newCounts = new int[8];
+        private int size;
+        private final List<String> oldLines = new ArrayList<>();
+        private final List<String> newLines = new ArrayList<>();
+
+        /**
+         * Adds a hunk. Hunks must be added in increasing row order and must not overlap.
+         * A hunk that starts right where the previous one ends is merged into it.
+         */
+        public Builder add(int row, List<String> removed, List<String> inserted)
+        {
+            oldLines.addAll(removed);
+            newLines.addAll(inserted);
+
+            if(size > 0 && rows[size - 1] + oldCounts[size - 1] == row)
+            {
+                oldCounts[size - 1] += removed.size();
+                newCounts[size - 1] += inserted.size();
+                return this;
+            }
+
+            if(size == rows.length)
+            {
+                rows = Arrays.copyOf(rows, size * 2);
+                oldCounts = Arrays.copyOf(oldCounts, size * 2);
+                newCounts = Arrays.copyOf(newCounts, size * 2);
+            }
+
+            rows[size] = row;
+            oldCounts[size] = removed.size();
+            newCounts[size] = inserted.size();
+            size++;
+            return this;
+        }
+
+        /**
+         * Adds all hunks of another builder, which must all come after the ones added so far.
+         */
+        public Builder addAll(Builder later)
+        {
+            int oldOffset = 0;
+            int newOffset = 0;
+
+            for(int i = 0; i < later.size; i++)
+            {
+                int oldEnd = oldOffset + later.oldCounts[i];
+                int newEnd = newOffset + later.newCounts[i];
+                add(later.rows[i], later.oldLines.subList(oldOffset, oldEnd), later.newLines.subList(newOffset, newEnd));
+                oldOffset = oldEnd;
+                newOffset = newEnd;
+            }
+
+            return this;
+        }
+
+        public LineDelta build()
+        {
+            return new LineDelta(Arrays.copyOf(rows, size), Arrays.copyOf(oldCounts, size), Arrays.copyOf(newCounts, size),
+                    new SpillableLines(oldLines), new SpillableLines(newLines));
+        }
+    }
+}
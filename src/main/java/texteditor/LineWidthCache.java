@@ -0,0 +1,88 @@
+package texteditor;
+
+import java.awt.*;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+class LineWidthCache
+{
+    private static final int MAX_CACHED_LINES = 256;
+
+    private FontMetrics metrics;
+    private final Map<Integer, int[]> entries = new LinkedHashMap<>(MAX_CACHED_LINES, 0.75f, true)
+    {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, int[]> eldest)
+        {
+            return size() > MAX_CACHED_LINES;
+        }
+    };
+
+    public boolean hasFontMetrics()
+    {
+        return metrics != null;
+    }
+
+    public void setFontMetrics(FontMetrics metrics)
+    {
+        if(this.metrics != null && this.metrics.getFont().equals(metrics.getFont())) return;
+
+        this.metrics = metrics;
+        entries.clear();
+    }
+
+    public void invalidateRows(int firstRow, int lastRow)
+    {
+        entries.keySet().removeIf(row -> row >= firstRow && row <= lastRow);
+    }
+
+    public void invalidateFrom(int firstRow)
+    {
+        invalidateRows(firstRow, Integer.MAX_VALUE);
+    }
+
+    public int getLineHeight()
+    {
+        return metrics.getHeight();
+    }
+
+    public int columnToX(int row, CharSequence line, int column)
+    {
+        return advances(row, line)[column];
+    }
+
+    public int xToColumn(int row, CharSequence line, int x)
+    {
+        int[] advances = advances(row, line);
+        int low = 0;
+        int high = line.length();
+
+        while(low < high)
+        {
+            int middle = (low + high + 1) >>> 1;
+            if(advances[middle] <= x) low = middle;
+            else high = middle - 1;
+        }
+
+        // Snap to whichever side of the character is closer.
+        if(low < line.length() && x - advances[low] > advances[low + 1] - x) low++;
+        return low;
+    }
+
+    // advances[i] is the width of the first i characters of the line. Entries stay valid until their row is
+    // invalidated, so the length check only guards against a missed invalidation and never compares the text.
+    private int[] advances(int row, CharSequence line)
+    {
+        int[] advances = entries.get(row);
+        if(advances != null && advances.length == line.length() + 1) return advances;
+
+        advances = new int[line.length() + 1];
+        for(int i = 0; i < line.length(); i++)
+        {
+            advances[i + 1] = advances[i] + metrics.charWidth(line.charAt(i));
+        }
+
+        entries.put(row, advances);
+        return advances;
+    }
+}
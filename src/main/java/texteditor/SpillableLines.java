@@ -0,0 +1,57 @@
+package texteditor;
+
+import texteditor.io.UndoSpillFile;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+
+// Written to the spill file at most once; afterwards the file copy is reused whenever memory runs short again.
+class SpillableLines
+{
+    private List<String> lines;
+    private final long size;
+    private UndoSpillFile file;
+    private long position;
+
+    SpillableLines(List<String> lines)
+    {
+        this.lines = lines;
+
+        long size = 16 + 8L * lines.size();
+        for(String line : lines) size += 40 + 2L * line.length();
+        this.size = size;
+    }
+
+    List<String> get()
+    {
+        if(lines != null) return lines;
+
+        try
+        {
+            return lines = file.readLines(position);
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    long estimateSize()
+    {
+        return lines == null ? 0 : size;
+    }
+
+    void spill(UndoSpillFile file) throws IOException
+    {
+        if(lines == null) return;
+
+        if(this.file == null)
+        {
+            position = file.writeLines(lines);
+            this.file = file;
+        }
+
+        lines = null;
+    }
+}
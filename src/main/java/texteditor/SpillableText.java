@@ -0,0 +1,51 @@
+package texteditor;
+
+import texteditor.io.UndoSpillFile;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+// Undo payload that is read back from the spill file on demand.
+class SpillableText
+{
+    private String text;
+    private UndoSpillFile file;
+    private long position;
+
+    SpillableText(String text)
+    {
+        this.text = text;
+    }
+
+    String get()
+    {
+        if(text != null) return text;
+
+        try
+        {
+            return text = file.readString(position);
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    long estimateSize()
+    {
+        return text == null ? 0 : 40 + 2L * text.length();
+    }
+
+    void spill(UndoSpillFile file) throws IOException
+    {
+        if(text == null) return;
+
+        if(this.file == null)
+        {
+            position = file.writeString(text);
+            this.file = file;
+        }
+
+        text = null;
+    }
+}
@@ -0,0 +1,47 @@
+package texteditor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures how long each phase of building the editor window takes. Every call to mark ends the
+ * current phase and starts the next one. Disabled timers do nothing, so they can be left in place.
+ */
+class StartupTimer
+{
+    private final boolean enabled;
+    private final long start = System.nanoTime();
+    private long phaseStart = start;
+
+    private final List<String> phases = new ArrayList<>();
+    private final List<Long> durations = new ArrayList<>();
+
+    public StartupTimer(boolean enabled)
+    {
+        this.enabled = enabled;
+    }
+
+    public void mark(String phase)
+    {
+        if(!enabled) return;
+
+        long now = System.nanoTime();
+        phases.add(phase);
+        durations.add(now - phaseStart);
+        phaseStart = now;
+    }
+
+    public void report()
+    {
+        if(!enabled) return;
+
+        StringBuilder sb = new StringBuilder("Startup timing:\n");
+        for(int i = 0; i < phases.size(); i++)
+        {
+            sb.append(String.format("  %-10s %8.2f ms%n", phases.get(i), durations.get(i) / 1e6));
+        }
+        sb.append(String.format("  %-10s %8.2f ms%n", "total", (phaseStart - start) / 1e6));
+
+        System.err.print(sb);
+    }
+}
@@ -1,19 +1,28 @@
 package texteditor;
 
+import texteditor.jfr.PaintEvent;
 import texteditor.location.Location;
 import texteditor.location.LocationRange;
+import texteditor.metrics.EditorMetrics;
+import texteditor.metrics.LatencyHistogram;
+import texteditor.observer.TextChangeEvent;
 
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
-import java.util.Iterator;
 
 public class TextEditor extends JComponent
 {
     private static final int OFFSET_X = 32;
     private static final int OFFSET_Y = 20;
+    private static final LatencyHistogram PAINT_LATENCY = EditorMetrics.latency("editor.paintComponent");
     private TextEditorModel model;
     private ClipboardStack clipboard = new ClipboardStack();
+    private LineWidthCache widthCache = new LineWidthCache();
+    private int paintedCursorRow;
+    private int paintedSelectionFirstRow;
+    private int paintedSelectionLastRow;
+    private char[] lineChars = new char[256];
 
     private static final Color BACKGROUND_COLOR = new Color(40, 44, 52);
     private static final Color CURRENT_LINE_BACKGROUND_COLOR = new Color(50, 54, 62);
@@ -25,13 +34,9 @@ public class TextEditor extends JComponent
     {
         this.model = model;
 
-        this.model.addCursorObserver(location -> repaint());
-        this.model.addSelectionObserver(this::repaint);
-        this.model.addTextObserver(() ->
-        {
-            revalidate();
-            repaint();
-        });
+        this.model.addCursorObserver(this::onCursorMoved);
+        this.model.addSelectionObserver(this::onSelectionChanged);
+        this.model.addTextChangeObserver(this::onTextChanged);
 
 
         this.setFont(new Font("Calibri", Font.PLAIN, 14));
@@ -84,6 +89,56 @@ public class TextEditor extends JComponent
         });
     }
 
+    //==================================================================
+    //                      Incremental repainting
+    //==================================================================
+
+    private void onCursorMoved(Location location)
+    {
+        repaintRows(paintedCursorRow, paintedCursorRow);
+        repaintRows(location.row, location.row);
+        paintedCursorRow = location.row;
+    }
+
+    private void onSelectionChanged()
+    {
+        LocationRange range = model.getSelectionRange();
+        int firstRow = Math.min(range.getStart().row, range.getEnd().row);
+        int lastRow = Math.max(range.getStart().row, range.getEnd().row);
+
+        repaintRows(Math.min(firstRow, paintedSelectionFirstRow), Math.max(lastRow, paintedSelectionLastRow));
+        paintedSelectionFirstRow = firstRow;
+        paintedSelectionLastRow = lastRow;
+    }
+
+    private void onTextChanged(TextChangeEvent event)
+    {
+        int firstRow = event.getStart().row;
+
+        if(event.changesLineCount())
+        {
+            // Every row below the change moved, so everything from the first changed row down is stale.
+            widthCache.invalidateFrom(firstRow);
+            revalidate();
+            repaintRows(firstRow, Integer.MAX_VALUE / 2);
+        }
+        else
+        {
+            widthCache.invalidateRows(firstRow, event.getNewEnd().row);
+            repaintRows(firstRow, event.getNewEnd().row);
+        }
+    }
+
+    private void repaintRows(int firstRow, int lastRow)
+    {
+        if(!widthCache.hasFontMetrics()) widthCache.setFontMetrics(getFontMetrics(getFont()));
+
+        int rowHeight = widthCache.getLineHeight();
+        int y = OFFSET_Y + rowHeight * (firstRow - 1);
+        long height = (long) rowHeight * (lastRow - firstRow + 2);
+        repaint(0, y, getWidth(), (int) Math.min(height, getHeight()));
+    }
+
     private void processKeyboardInput(KeyEvent e)
     {
         if (e.isControlDown())
@@ -119,11 +174,11 @@ public class TextEditor extends JComponent
         }
         else if (e.getKeyCode() == KeyEvent.VK_Z)
         {
-            UndoManager.getInstance().undo();
+            model.undo();
         }
         else if (e.getKeyCode() == KeyEvent.VK_Y)
         {
-            UndoManager.getInstance().redo();
+            model.redo();
         }
         else if (e.getKeyCode() == KeyEvent.VK_A)
         {
@@ -140,19 +195,27 @@ public class TextEditor extends JComponent
         // ASCII: 32 = space char, 126 = last special char
         if ((code >= 32 && code <= 126) || c == '\n')
         {
-            if (!model.getSelectionRange().isEmpty())
-                model.deleteSelectedRange();
+            model.edit(m ->
+            {
+                if (!m.getSelectionRange().isEmpty())
+                    m.deleteSelectedRange();
 
-            model.insert(c);
+                m.insert(c);
+            });
         }
     }
 
     @Override
     public void paintComponent(Graphics g)
     {
+        long start = PAINT_LATENCY.start();
+        PaintEvent event = new PaintEvent();
+        event.begin();
         super.paintComponent(g);
 
         Graphics2D g2d = (Graphics2D)g;
+        widthCache.setFontMetrics(g2d.getFontMetrics());
+
         g2d.setColor(BACKGROUND_COLOR);
         g2d.fillRect(0, 0, getWidth(), getHeight());
 
@@ -160,6 +223,15 @@ public class TextEditor extends JComponent
         paintSelection(g2d);
         paintText(g2d);
         paintCursor(g2d);
+        PAINT_LATENCY.stop(start);
+
+        event.end();
+        if(event.shouldCommit())
+        {
+            event.firstRow = firstVisibleRow(g2d);
+            event.visibleRows = lastVisibleRow(g2d) - event.firstRow;
+            event.commit();
+        }
     }
 
     private void paintCurrentLineBackground(Graphics2D g2d)
@@ -179,10 +251,13 @@ public class TextEditor extends JComponent
         int startRow = range.getStart().row;
         int endRow = range.getEnd().row;
 
-        for(int row = startRow; row <= endRow; row++)
+        int firstRow = Math.max(startRow, firstVisibleRow(g2d));
+        int lastRow = Math.min(endRow, lastVisibleRow(g2d) - 1);
+
+        for(int row = firstRow; row <= lastRow; row++)
         {
             int startIndex = 0;
-            int endIndex = model.getLines().get(row).length();
+            int endIndex = model.getLineChars(row).length();
 
             if(row == startRow)
                 startIndex = range.getStart().column;
@@ -196,12 +271,10 @@ public class TextEditor extends JComponent
 
     private void paintSelectionForRow(Graphics2D g2d, int row, int startIndex, int endIndex)
     {
-        String line = model.getLines().get(row);
-        String untilSelection = line.substring(0, startIndex);
-        String selection = line.substring(startIndex, endIndex);
+        CharSequence line = model.getLineChars(row);
 
-        int selectionOffsetX = g2d.getFontMetrics().stringWidth(untilSelection);
-        int width = g2d.getFontMetrics().stringWidth(selection);
+        int selectionOffsetX = widthCache.columnToX(row, line, startIndex);
+        int width = widthCache.columnToX(row, line, endIndex) - selectionOffsetX;
 
         int height = g2d.getFontMetrics().getHeight();
         int selectionOffsetY = height * row;
@@ -212,24 +285,63 @@ public class TextEditor extends JComponent
 
     private void paintText(Graphics2D g2d)
     {
-        Iterator<String> iterator = model.allLines();
+        int lastRow = lastVisibleRow(g2d);
         int rowHeight = g2d.getFontMetrics().getHeight();
-        for(int row = 0; iterator.hasNext(); row++)
+        for(int row = firstVisibleRow(g2d); row < lastRow; row++)
         {
             g2d.setColor(ROW_NUMBER_COLOR);
             g2d.drawString(String.valueOf(row + 1), OFFSET_X / 3, OFFSET_Y + rowHeight * row);
 
             g2d.setColor(TEXT_COLOR);
-            g2d.drawString(iterator.next(), OFFSET_X, OFFSET_Y + rowHeight * row);
+            drawLine(g2d, model.getLineChars(row), OFFSET_Y + rowHeight * row);
         }
     }
 
+    // The row being typed on may be a view of the storage's buffer; it is copied into a reused array
+    // rather than turned into a new string on every keystroke.
+    private void drawLine(Graphics2D g2d, CharSequence line, int y)
+    {
+        if(line instanceof String)
+        {
+            g2d.drawString((String) line, OFFSET_X, y);
+            return;
+        }
+
+        int length = line.length();
+        if(lineChars.length < length) lineChars = new char[Math.max(length, lineChars.length * 2)];
+
+        for(int i = 0; i < length; i++) lineChars[i] = line.charAt(i);
+        g2d.drawChars(lineChars, 0, length, OFFSET_X, y);
+    }
+
+    private int firstVisibleRow(Graphics2D g2d)
+    {
+        Rectangle clip = clipBounds(g2d);
+        int rowHeight = g2d.getFontMetrics().getHeight();
+        return Math.max(0, (clip.y - OFFSET_Y) / rowHeight - 1);
+    }
+
+    // Exclusive bound, clamped to the number of lines in the document.
+    private int lastVisibleRow(Graphics2D g2d)
+    {
+        Rectangle clip = clipBounds(g2d);
+        int rowHeight = g2d.getFontMetrics().getHeight();
+        int lastRow = (clip.y + clip.height - OFFSET_Y) / rowHeight + 2;
+        return Math.max(0, Math.min(model.getLines().size(), lastRow));
+    }
+
+    private Rectangle clipBounds(Graphics2D g2d)
+    {
+        Rectangle clip = g2d.getClipBounds();
+        return clip != null ? clip : new Rectangle(0, 0, getWidth(), getHeight());
+    }
+
     private void paintCursor(Graphics2D g2d)
     {
         Location cl = model.getCursorLocation();
-        String lineUntilCursor = model.getLines().get(cl.row).substring(0, cl.column);
+        CharSequence line = model.getLineChars(cl.row);
 
-        int cursorX = g2d.getFontMetrics().stringWidth(lineUntilCursor);
+        int cursorX = widthCache.columnToX(cl.row, line, cl.column);
         int letterHeight = g2d.getFontMetrics().getHeight();
         int cursorY = letterHeight * cl.row;
 
@@ -250,6 +362,18 @@ public class TextEditor extends JComponent
         return clipboard;
     }
 
+    public void scrollToCursor()
+    {
+        if(!widthCache.hasFontMetrics()) widthCache.setFontMetrics(getFontMetrics(getFont()));
+
+        Location cl = model.getCursorLocation();
+        int rowHeight = widthCache.getLineHeight();
+        int x = OFFSET_X + widthCache.columnToX(cl.row, model.getLineChars(cl.row), cl.column);
+        int y = Math.max(0, OFFSET_Y + rowHeight * (cl.row - 1));
+
+        scrollRectToVisible(new Rectangle(x, y, 1, rowHeight * 2));
+    }
+
     public void copySelectedText()
     {
         if(model.getSelectionRange().isEmpty()) return;
@@ -260,26 +384,28 @@ public class TextEditor extends JComponent
     {
         if(model.getSelectionRange().isEmpty()) return;
         clipboard.push(model.getSelectedText());
-        model.deleteSelectedRange();
+        model.edit(TextEditorModel::deleteSelectedRange);
     }
 
     public void pasteText()
     {
         if(clipboard.isEmpty()) return;
-        model.insert(clipboard.peek());
+        model.edit(m -> m.insert(clipboard.peek()));
     }
 
     public void pasteAndTakeText()
     {
         if(clipboard.isEmpty()) return;
-        model.insert(clipboard.pop());
+        model.edit(m -> m.insert(clipboard.pop()));
     }
 
     @Override
     public Dimension getPreferredSize()
     {
         var size = super.getPreferredSize();
-        int height = getGraphics().getFontMetrics().getHeight() * (model.getLines().size() + 1);
+        if(!widthCache.hasFontMetrics()) widthCache.setFontMetrics(getFontMetrics(getFont()));
+
+        int height = widthCache.getLineHeight() * (model.getLines().size() + 1);
         return new Dimension(size.width, Math.max(size.height, height));
     }
 }
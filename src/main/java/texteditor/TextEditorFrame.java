@@ -1,9 +1,22 @@
 package texteditor;
 
-import org.reflections.Reflections;
-import org.reflections.scanners.SubTypesScanner;
+import texteditor.io.DocumentSaver;
+import texteditor.jfr.EditorEvents;
+import texteditor.jfr.FileOpenEvent;
+import texteditor.jfr.FileSaveEvent;
+import texteditor.jfr.PluginEvent;
+import texteditor.location.LocationRange;
+import texteditor.metrics.EditorMetrics;
+import texteditor.metrics.LatencyHistogram;
+import texteditor.metrics.MetricsOverlay;
 import texteditor.observer.UndoManagerObserver;
+import texteditor.plugin.AsyncPlugin;
 import texteditor.plugin.Plugin;
+import texteditor.plugin.PluginInfo;
+import texteditor.plugin.PluginProgress;
+import texteditor.storage.MappedFileStorage;
+import texteditor.storage.StorageType;
+import texteditor.storage.TextStorage;
 
 import javax.swing.*;
 import java.awt.*;
@@ -11,15 +24,26 @@ import java.awt.event.*;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
 
 public class TextEditorFrame extends JFrame
 {
-    private static final String PLUGIN_PATH = "texteditor.plugin";
+    private static final String STARTUP_TIMING_PROPERTY = "texteditor.startup.timing";
+    private static final String STORAGE_PROPERTY = "texteditor.storage";
+    private static final long MAPPED_OPEN_THRESHOLD = 32L * 1024 * 1024;
+    private static final String UNDO_BUDGET_PROPERTY = "texteditor.undo.budget";
+    private static final long DEFAULT_UNDO_BUDGET_MB = 256;
+    private static final String SEARCH_INDEX_PROPERTY = "texteditor.search.index";
+    private static final String WATCHDOG_PROPERTY = "texteditor.watchdog";
     private static final int SCREEN_WIDTH = 800;
     private static final int SCREEN_HEIGHT = 600;
 
     private JLabel cursorLocationLabel;
     private JLabel rowCountLabel;
+    private JLabel statisticsLabel;
 
     private JMenuItem undoMenuItem;
     private JMenuItem redoMenuItem;
@@ -32,6 +56,8 @@ public class TextEditorFrame extends JFrame
 
     private TextEditor editor;
     private TextEditorModel model;
+    private FindReplaceDialog findReplaceDialog;
+    private EdtWatchdog watchdog;
 
     private JButton undoButton;
     private JButton redoButton;
@@ -42,13 +68,37 @@ public class TextEditorFrame extends JFrame
 
     public TextEditorFrame()
     {
+        StartupTimer timer = new StartupTimer(Boolean.getBoolean(STARTUP_TIMING_PROPERTY));
+
         initMenuBar();
+        timer.mark("menu");
+
+        initPlugins(getJMenuBar());
+        timer.mark("plugins");
 
         add(createToolbar(), BorderLayout.PAGE_START);
+        timer.mark("toolbar");
+
         add(createTextEditor());
         add(createStatusBar(), BorderLayout.PAGE_END);
+        timer.mark("editor");
+
+        long undoBudget = Long.getLong(UNDO_BUDGET_PROPERTY, DEFAULT_UNDO_BUDGET_MB);
+        model.getUndoManager().setMemoryBudget(undoBudget * 1024 * 1024);
+
+        // Megabytes the search index may use; without the property there is no index.
+        long searchIndexLimit = Long.getLong(SEARCH_INDEX_PROPERTY, 0);
+        if(searchIndexLimit > 0) model.enableSearchIndex(searchIndexLimit * 1024 * 1024, SwingUtilities::invokeLater);
 
-        UndoManager.getInstance().addObserver(new UndoManagerObserver()
+        // Milliseconds the event dispatch thread may be busy before its stack is sampled and reported.
+        long watchdogThreshold = Long.getLong(WATCHDOG_PROPERTY, 0);
+        if(watchdogThreshold > 0)
+        {
+            watchdog = new EdtWatchdog(watchdogThreshold, System.err::print);
+            watchdog.start();
+        }
+
+        model.getUndoManager().addObserver(new UndoManagerObserver()
         {
             @Override
             public void onUndoStackEmpty()
@@ -79,6 +129,16 @@ public class TextEditorFrame extends JFrame
             }
         });
 
+        addWindowListener(new WindowAdapter()
+        {
+            @Override
+            public void windowClosed(WindowEvent e)
+            {
+                model.getUndoManager().close();
+                if(watchdog != null) watchdog.stop();
+            }
+        });
+
         addWindowFocusListener(new WindowAdapter() {
             public void windowGainedFocus(WindowEvent e) {
                 editor.requestFocusInWindow();
@@ -89,11 +149,15 @@ public class TextEditorFrame extends JFrame
         setDefaultCloseOperation(DISPOSE_ON_CLOSE);
         setSize(SCREEN_WIDTH, SCREEN_HEIGHT);
         setLocationRelativeTo(null);
+
+        timer.mark("frame");
+        timer.report();
     }
 
     private JScrollPane createTextEditor()
     {
-        model = new TextEditorModel("");
+        String storageName = System.getProperty(STORAGE_PROPERTY, StorageType.PIECE_TABLE.name());
+        model = new TextEditorModel("", StorageType.valueOf(storageName.toUpperCase()).create());
         editor = new TextEditor(model);
 
         JScrollPane editorScrollPane = new JScrollPane(editor);
@@ -112,15 +176,17 @@ public class TextEditorFrame extends JFrame
             cursorLocationLabel.setText(stringifyCursorLocation(location.row, location.column));
         });
 
-        model.addTextObserver(() ->
+        model.addTextChangeObserver(event ->
         {
             clearDocumentMenuItem.setEnabled(!model.isEmpty());
-            rowCountLabel.setText(stringifyRowCount(model.getLines().size()));
+
+            if(event.changesLineCount())
+                rowCountLabel.setText(stringifyRowCount(model.getLines().size()));
         });
 
         model.addSelectionObserver(() ->
         {
-            boolean hasSelection = !model.getSelectedText().isEmpty();
+            boolean hasSelection = !model.getSelectionRange().isEmpty();
             copyButton.setEnabled(hasSelection);
             copyMenuItem.setEnabled(hasSelection);
             cutButton.setEnabled(hasSelection);
@@ -165,7 +231,7 @@ public class TextEditorFrame extends JFrame
             @Override
             public void actionPerformed(ActionEvent e)
             {
-                UndoManager.getInstance().undo();
+                model.undo();
             }
         });
 
@@ -174,7 +240,7 @@ public class TextEditorFrame extends JFrame
             @Override
             public void actionPerformed(ActionEvent e)
             {
-                UndoManager.getInstance().redo();
+                model.redo();
             }
         });
 
@@ -242,10 +308,20 @@ public class TextEditorFrame extends JFrame
         edit.add(pasteAndTakeMenuItem = createPasteAndTake());
         edit.add(deleteSelectionMenuItem = createDeleteSelection());
         edit.add(clearDocumentMenuItem = createClearDocument());
+        edit.addSeparator();
+        edit.add(createFindReplace());
 
         move.add(createMoveCursorToStart());
         move.add(createMoveCursorToEnd());
 
+        // Latencies are only collected when metrics are enabled, so there is nothing to show otherwise.
+        if(EditorMetrics.ENABLED)
+        {
+            JMenu view = new JMenu("View");
+            view.add(createMetricsOverlay());
+            menuBar.add(view);
+        }
+
         undoMenuItem.setEnabled(false);
         redoMenuItem.setEnabled(false);
         copyMenuItem.setEnabled(false);
@@ -255,56 +331,116 @@ public class TextEditorFrame extends JFrame
         deleteSelectionMenuItem.setEnabled(false);
         clearDocumentMenuItem.setEnabled(false);
 
-        initPlugins(menuBar);
-
         setJMenuBar(menuBar);
     }
 
+    // Plugins are listed in META-INF/services and only constructed when first run,
+    // unless they lack a PluginInfo annotation to build their menu entry from.
     private void initPlugins(JMenuBar menuBar)
     {
-        Reflections reflections = new Reflections(PLUGIN_PATH, new SubTypesScanner(false));
-        var pluginClasses = reflections.getSubTypesOf(Plugin.class);
-
-        if(pluginClasses.isEmpty()) return;
-
         JMenu pluginMenu = new JMenu("Plug-in");
-        menuBar.add(pluginMenu);
 
-        try
+        for(var provider : ServiceLoader.load(Plugin.class).stream().toList())
         {
-            for (var pluginClass : pluginClasses)
+            try
             {
-                Plugin plugin = pluginClass.getConstructor().newInstance();
+                PluginInfo info = provider.type().getAnnotation(PluginInfo.class);
+                Plugin eagerPlugin = info == null ? provider.get() : null;
+                String name = info != null ? info.name() : eagerPlugin.getName();
 
                 JMenuItem pluginItem = new JMenuItem();
                 pluginItem.setAction(new AbstractAction()
                 {
+                    private Plugin plugin = eagerPlugin;
+
                     @Override
                     public void actionPerformed(ActionEvent e)
                     {
-                        plugin.execute(model, UndoManager.getInstance(), editor.getClipboard());
+                        if(plugin == null)
+                        {
+                            try
+                            {
+                                plugin = provider.get();
+                            }
+                            catch (ServiceConfigurationError ex)
+                            {
+                                ex.printStackTrace();
+                                setEnabled(false);
+                                pluginItem.setToolTipText(name + " could not be loaded.");
+                                JOptionPane.showMessageDialog(TextEditorFrame.this, name + " could not be loaded.", "Error", JOptionPane.ERROR_MESSAGE);
+                                return;
+                            }
+                        }
+
+                        if(plugin instanceof AsyncPlugin)
+                        {
+                            runInBackground((AsyncPlugin<?>) plugin);
+                            return;
+                        }
+
+                        LatencyHistogram latency = EditorMetrics.latency("plugin." + plugin.getName() + ".execute");
+                        long start = latency.start();
+                        PluginEvent event = new PluginEvent();
+                        event.begin();
+
+                        String report = model.editAndGet(m ->
+                        {
+                            plugin.execute(m, m.getUndoManager(), editor.getClipboard());
+                            return plugin.report(m);
+                        });
+
+                        latency.stop(start);
+                        event.plugin = plugin.getName();
+                        event.phase = PluginEvent.EXECUTE;
+                        event.commit();
+
+                        showReport(plugin, report);
                     }
                 });
-                pluginItem.setText(plugin.getName());
-                pluginItem.setToolTipText(plugin.getDescription());
+                pluginItem.setText(name);
+                pluginItem.setToolTipText(info != null ? info.description() : eagerPlugin.getDescription());
 
                 pluginMenu.add(pluginItem);
             }
+            catch (Exception | ServiceConfigurationError e)
+            {
+                e.printStackTrace();
+            }
         }
-        catch (Exception e)
-        {
-            e.printStackTrace();
-        }
+
+        if(pluginMenu.getItemCount() > 0) menuBar.add(pluginMenu);
+    }
+
+    private void showReport(Plugin plugin, String report)
+    {
+        if(report == null) return;
+        JOptionPane.showMessageDialog(this, report, plugin.getName(), JOptionPane.INFORMATION_MESSAGE);
     }
 
     private JPanel createStatusBar()
     {
-        JPanel statusBarPanel = new JPanel(new GridLayout(1, 2));
+        JPanel statusBarPanel = new JPanel(new GridLayout(1, 3));
+        DocumentStatistics statistics = model.getStatistics(SwingUtilities::invokeLater);
 
         statusBarPanel.add(cursorLocationLabel = new JLabel(stringifyCursorLocation(0, 0)));
         statusBarPanel.add(rowCountLabel = new JLabel(stringifyRowCount(1)));
+        statusBarPanel.add(statisticsLabel = new JLabel());
         cursorLocationLabel.setBorder(BorderFactory.createLineBorder(Color.LIGHT_GRAY, 1));
         rowCountLabel .setBorder(BorderFactory.createLineBorder(Color.LIGHT_GRAY, 1));
+        statisticsLabel.setBorder(BorderFactory.createLineBorder(Color.LIGHT_GRAY, 1));
+
+        updateStatisticsLabel(statistics);
+        statistics.addObserver(() -> updateStatisticsLabel(statistics));
+
+        // A mapped file is only counted once asked for, since that decodes all of it.
+        statisticsLabel.addMouseListener(new MouseAdapter()
+        {
+            @Override
+            public void mouseClicked(MouseEvent e)
+            {
+                statistics.count();
+            }
+        });
 
         return statusBarPanel;
     }
@@ -325,7 +461,25 @@ public class TextEditorFrame extends JFrame
 
                 try
                 {
-                    model.modifyLines(Files.readAllLines(path));
+                    FileOpenEvent event = new FileOpenEvent();
+                    event.begin();
+
+                    long size = Files.size(path);
+                    boolean mapped = size >= MAPPED_OPEN_THRESHOLD;
+
+                    if(mapped)
+                    {
+                        model.replaceStorage(new MappedFileStorage(path, SwingUtilities::invokeLater));
+                    }
+                    else
+                    {
+                        model.modifyLines(Files.readAllLines(path));
+                    }
+
+                    event.path = path.toString();
+                    event.bytes = size;
+                    event.mapped = mapped;
+                    event.commit();
                 }
                 catch (IOException ex)
                 {
@@ -352,20 +506,161 @@ public class TextEditorFrame extends JFrame
                 if(jfc.showSaveDialog(TextEditorFrame.this) != JFileChooser.APPROVE_OPTION) return;
                 Path path = jfc.getSelectedFile().toPath();
 
+                save(model.snapshot(), path);
+            }
+        });
+
+        item.setText("Save");
+        return item;
+    }
+
+    private void save(TextStorage snapshot, Path path)
+    {
+        ProgressMonitor monitor = new ProgressMonitor(this, "Saving " + path.getFileName(), null, 0, 100);
+
+        SwingWorker<Void, Void> worker = new SwingWorker<>()
+        {
+            @Override
+            protected Void doInBackground() throws IOException
+            {
+                FileSaveEvent event = new FileSaveEvent();
+                event.begin();
+                DocumentSaver.save(snapshot, path, this::setProgress);
+                event.end();
+
+                if(event.shouldCommit())
+                {
+                    event.path = path.toString();
+                    event.bytes = Files.size(path);
+                    event.commit();
+                }
+
+                return null;
+            }
+
+            @Override
+            protected void done()
+            {
+                monitor.close();
+                if(isCancelled()) return;
+
                 try
                 {
-                    Files.write(path, model.getLines());
+                    get();
                     JOptionPane.showMessageDialog(TextEditorFrame.this, "File saved!", "Success", JOptionPane.INFORMATION_MESSAGE);
                 }
-                catch (IOException ex)
+                catch (InterruptedException | ExecutionException ex)
                 {
                     JOptionPane.showMessageDialog(TextEditorFrame.this, "Could not save.", "Error", JOptionPane.ERROR_MESSAGE);
                 }
             }
+        };
+
+        worker.addPropertyChangeListener(event ->
+        {
+            if(!"progress".equals(event.getPropertyName())) return;
+
+            monitor.setProgress(worker.getProgress());
+            if(monitor.isCanceled()) worker.cancel(true);
         });
 
-        item.setText("Save");
-        return item;
+        worker.execute();
+    }
+
+    private <R> void runInBackground(AsyncPlugin<R> plugin)
+    {
+        TextStorage snapshot = model.snapshot();
+        LocationRange range = model.getSelectionRange();
+        LocationRange selection = new LocationRange(range.getStart().clone(), range.getEnd().clone());
+        long version = model.getVersion();
+        ProgressMonitor monitor = new ProgressMonitor(this, "Running " + plugin.getName(), null, 0, 100);
+
+        class PluginWorker extends SwingWorker<R, Void> implements PluginProgress
+        {
+            @Override
+            protected R doInBackground()
+            {
+                LatencyHistogram latency = EditorMetrics.latency("plugin." + plugin.getName() + ".compute");
+                long start = latency.start();
+                PluginEvent event = new PluginEvent();
+                event.begin();
+
+                R result = plugin.compute(snapshot, selection, this);
+
+                latency.stop(start);
+                event.plugin = plugin.getName();
+                event.phase = PluginEvent.COMPUTE;
+                event.commit();
+                return result;
+            }
+
+            @Override
+            public void reportProgress(int percent)
+            {
+                setProgress(Math.max(0, Math.min(100, percent)));
+            }
+
+            @Override
+            protected void done()
+            {
+                monitor.close();
+                if(isCancelled()) return;
+
+                R result;
+
+                try
+                {
+                    result = get();
+                }
+                catch (InterruptedException | ExecutionException ex)
+                {
+                    if(ex.getCause() instanceof CancellationException) return;
+
+                    ex.printStackTrace();
+                    JOptionPane.showMessageDialog(TextEditorFrame.this, plugin.getName() + " failed.", "Error", JOptionPane.ERROR_MESSAGE);
+                    return;
+                }
+
+                // The result was computed from the snapshot, so it no longer fits an edited document.
+                if(model.getVersion() != version)
+                {
+                    JOptionPane.showMessageDialog(TextEditorFrame.this,
+                            "The document changed while " + plugin.getName() + " was running. Please run it again.",
+                            "Warning", JOptionPane.WARNING_MESSAGE);
+                    return;
+                }
+
+                LatencyHistogram latency = EditorMetrics.latency("plugin." + plugin.getName() + ".apply");
+                long start = latency.start();
+                PluginEvent event = new PluginEvent();
+                event.begin();
+
+                String report = model.editAndGet(m ->
+                {
+                    plugin.apply(m, result, editor.getClipboard());
+                    return plugin.report(m, result);
+                });
+
+                latency.stop(start);
+                event.plugin = plugin.getName();
+                event.phase = PluginEvent.APPLY;
+                event.commit();
+
+                showReport(plugin, report);
+            }
+        }
+
+        PluginWorker worker = new PluginWorker();
+
+        worker.addPropertyChangeListener(event ->
+        {
+            if(!"progress".equals(event.getPropertyName())) return;
+
+            monitor.setProgress(worker.getProgress());
+            if(monitor.isCanceled()) worker.cancel(true);
+        });
+
+        worker.execute();
     }
 
     private JMenuItem createExit()
@@ -391,7 +686,7 @@ public class TextEditorFrame extends JFrame
             @Override
             public void actionPerformed(ActionEvent e)
             {
-                UndoManager.getInstance().undo();
+                model.undo();
             }
         });
         item.setText("Undo");
@@ -406,7 +701,7 @@ public class TextEditorFrame extends JFrame
             @Override
             public void actionPerformed(ActionEvent e)
             {
-                UndoManager.getInstance().redo();
+                model.redo();
             }
         });
         item.setText("Redo");
@@ -507,6 +802,41 @@ public class TextEditorFrame extends JFrame
         return item;
     }
 
+    private JMenuItem createFindReplace()
+    {
+        JMenuItem item = new JMenuItem();
+        item.setAction(new AbstractAction()
+        {
+            @Override
+            public void actionPerformed(ActionEvent e)
+            {
+                if(findReplaceDialog == null) findReplaceDialog = new FindReplaceDialog(TextEditorFrame.this, model, editor);
+                findReplaceDialog.setVisible(true);
+            }
+        });
+        item.setText("Find and replace...");
+        item.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_F, InputEvent.CTRL_DOWN_MASK));
+        return item;
+    }
+
+    private JMenuItem createMetricsOverlay()
+    {
+        setGlassPane(new MetricsOverlay());
+
+        JCheckBoxMenuItem item = new JCheckBoxMenuItem();
+        item.setAction(new AbstractAction()
+        {
+            @Override
+            public void actionPerformed(ActionEvent e)
+            {
+                getGlassPane().setVisible(item.isSelected());
+            }
+        });
+        item.setText("Latency overlay");
+        item.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_M, InputEvent.CTRL_DOWN_MASK | InputEvent.SHIFT_DOWN_MASK));
+        return item;
+    }
+
     private JMenuItem createMoveCursorToStart()
     {
         JMenuItem item = new JMenuItem();
@@ -541,6 +871,8 @@ public class TextEditorFrame extends JFrame
 
     public static void main(String[] args)
     {
+        EditorEvents.initializeInBackground();
+
         SwingUtilities.invokeLater(() -> {
             new TextEditorFrame().setVisible(true);
         });
@@ -555,4 +887,18 @@ public class TextEditorFrame extends JFrame
     {
         return "Number of rows: " + rowCount;
     }
+
+    private void updateStatisticsLabel(DocumentStatistics statistics)
+    {
+        statisticsLabel.setText(stringifyStatistics(statistics));
+        statisticsLabel.setToolTipText(statistics.isAvailable() ? null : "Click to count the words and letters");
+    }
+
+    private String stringifyStatistics(DocumentStatistics statistics)
+    {
+        if(!statistics.isAvailable()) return "Words: n/a Letters: n/a";
+
+        String counts = "Words: " + statistics.getWordCount() + " Letters: " + statistics.getLetterCount();
+        return statistics.isCounting() ? counts + " (counting)" : counts;
+    }
 }
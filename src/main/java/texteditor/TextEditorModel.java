@@ -1,24 +1,91 @@
 package texteditor;
 
+import texteditor.io.UndoSpillFile;
+import texteditor.jfr.TextDeleteEvent;
+import texteditor.jfr.TextInsertEvent;
+import texteditor.jfr.TextReplaceEvent;
 import texteditor.location.Location;
 import texteditor.location.LocationRange;
-
+import texteditor.metrics.EditorMetrics;
+import texteditor.metrics.LatencyHistogram;
+import texteditor.observer.TextChangeEvent;
+import texteditor.search.Replacements;
+import texteditor.search.SearchQuery;
+import texteditor.search.TrigramIndex;
+import texteditor.storage.LineListStorage;
+import texteditor.storage.TextStorage;
+
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 public class TextEditorModel extends AbstractTextEditorModel
 {
+    // Public operations are timed; getters and observer registration are not.
+    private static final LatencyHistogram UNDO_LATENCY = EditorMetrics.latency("model.undo");
+    private static final LatencyHistogram REDO_LATENCY = EditorMetrics.latency("model.redo");
+    private static final LatencyHistogram JUMP_TO_LATENCY = EditorMetrics.latency("model.jumpTo");
+    private static final LatencyHistogram JUMP_TO_TIME_LATENCY = EditorMetrics.latency("model.jumpToTime");
+    private static final LatencyHistogram MOVE_CURSOR_LEFT_LATENCY = EditorMetrics.latency("model.moveCursorLeft");
+    private static final LatencyHistogram MOVE_CURSOR_RIGHT_LATENCY = EditorMetrics.latency("model.moveCursorRight");
+    private static final LatencyHistogram MOVE_CURSOR_UP_LATENCY = EditorMetrics.latency("model.moveCursorUp");
+    private static final LatencyHistogram MOVE_CURSOR_DOWN_LATENCY = EditorMetrics.latency("model.moveCursorDown");
+    private static final LatencyHistogram MOVE_CURSOR_TO_START_LATENCY = EditorMetrics.latency("model.moveCursorToStart");
+    private static final LatencyHistogram MOVE_CURSOR_TO_END_LATENCY = EditorMetrics.latency("model.moveCursorToEnd");
+    private static final LatencyHistogram GET_SELECTED_TEXT_LATENCY = EditorMetrics.latency("model.getSelectedText");
+    private static final LatencyHistogram SELECT_ALL_TEXT_LATENCY = EditorMetrics.latency("model.selectAllText");
+    private static final LatencyHistogram SELECT_LATENCY = EditorMetrics.latency("model.select");
+    private static final LatencyHistogram CLEAR_LATENCY = EditorMetrics.latency("model.clear");
+    private static final LatencyHistogram MODIFY_LINES_LATENCY = EditorMetrics.latency("model.modifyLines");
+    private static final LatencyHistogram APPLY_DELTA_LATENCY = EditorMetrics.latency("model.applyDelta");
+    private static final LatencyHistogram REPLACE_STORAGE_LATENCY = EditorMetrics.latency("model.replaceStorage");
+    private static final LatencyHistogram DELETE_BEFORE_LATENCY = EditorMetrics.latency("model.deleteBefore");
+    private static final LatencyHistogram DELETE_AFTER_LATENCY = EditorMetrics.latency("model.deleteAfter");
+    private static final LatencyHistogram DELETE_SELECTED_RANGE_LATENCY = EditorMetrics.latency("model.deleteSelectedRange");
+    private static final LatencyHistogram DELETE_RANGE_LATENCY = EditorMetrics.latency("model.deleteRange");
+    private static final LatencyHistogram INSERT_CHAR_LATENCY = EditorMetrics.latency("model.insertChar");
+    private static final LatencyHistogram INSERT_TEXT_LATENCY = EditorMetrics.latency("model.insertText");
+    private static final LatencyHistogram FIND_LATENCY = EditorMetrics.latency("model.find");
+    private static final LatencyHistogram REPLACE_SELECTION_LATENCY = EditorMetrics.latency("model.replaceSelection");
+    private static final LatencyHistogram REPLACE_ALL_LATENCY = EditorMetrics.latency("model.replaceAll");
+
+    // Only the outermost public operation is timed, so one calling another is not counted twice.
+    private int timingDepth;
+
+    private final UndoManager undoManager;
+    private DocumentStatistics statistics;
+    private TrigramIndex searchIndex;
+
     public TextEditorModel(String text)
     {
+        this(text, new LineListStorage());
+    }
+
+    public TextEditorModel(String text, TextStorage storage)
+    {
+        this(text, storage, new UndoManager());
+    }
+
+    public TextEditorModel(String text, TextStorage storage, UndoManager undoManager)
+    {
+        super(storage);
+        this.undoManager = undoManager;
         initializeLines(text);
     }
 
     private void initializeLines(String text)
     {
+        List<String> lines = new ArrayList<>();
+
         if(text.equals(""))
         {
             lines.add(text);
+            storage.setLines(lines);
             return;
         }
 
@@ -39,6 +106,107 @@ public class TextEditorModel extends AbstractTextEditorModel
         {
             lines.add(text.substring(start, pointer));
         }
+
+        storage.setLines(lines);
+    }
+
+    //==================================================================
+    //                        Transactions
+    //==================================================================
+
+    /**
+     * Runs the given changes as one edit: observers are notified once when it completes
+     * and everything it pushed is undone in a single step.
+     */
+    public void edit(Consumer<TextEditorModel> transaction)
+    {
+        editAndGet(model ->
+        {
+            transaction.accept(model);
+            return null;
+        });
+    }
+
+    /**
+     * Like edit, but returns what the transaction returns. Whatever has to wait until the edit
+     * is complete, such as a dialog, can be based on it.
+     */
+    public <R> R editAndGet(Function<TextEditorModel, R> transaction)
+    {
+        beginEdit();
+        undoManager.beginCompound();
+
+        try
+        {
+            return transaction.apply(this);
+        }
+        finally
+        {
+            undoManager.endCompound();
+            endEdit();
+        }
+    }
+
+    //==================================================================
+    //                           Timing
+    //==================================================================
+
+    private void timed(LatencyHistogram latency, Runnable operation)
+    {
+        timedAndGet(latency, () ->
+        {
+            operation.run();
+            return null;
+        });
+    }
+
+    private <R> R timedAndGet(LatencyHistogram latency, Supplier<R> operation)
+    {
+        if(!EditorMetrics.ENABLED || timingDepth > 0) return operation.get();
+
+        timingDepth++;
+        long start = latency.start();
+
+        try
+        {
+            return operation.get();
+        }
+        finally
+        {
+            latency.stop(start);
+            timingDepth--;
+        }
+    }
+
+    //==================================================================
+    //                        Undo history
+    //==================================================================
+
+    public void undo()
+    {
+        timed(UNDO_LATENCY, () -> edit(model -> undoManager.undo()));
+    }
+
+    public void redo()
+    {
+        timed(REDO_LATENCY, () -> edit(model -> undoManager.redo()));
+    }
+
+    /**
+     * Moves through the undo history to the state after the given node. However many edits are undone
+     * and redone on the way, observers are notified once.
+     */
+    public void jumpTo(UndoManager.Node node)
+    {
+        timed(JUMP_TO_LATENCY, () -> edit(model -> undoManager.jumpTo(node)));
+    }
+
+    /**
+     * Moves through the undo history to the newest state created at or before the given time, see jumpTo.
+     */
+    public void jumpToTime(long timestamp)
+    {
+        timed(JUMP_TO_TIME_LATENCY, () -> edit(model -> undoManager.jumpToTime(timestamp)));
     }
 
     //==================================================================
@@ -46,12 +214,17 @@ public class TextEditorModel extends AbstractTextEditorModel
     //==================================================================
 
     public void moveCursorLeft(boolean isSelecting)
+    {
+        timed(MOVE_CURSOR_LEFT_LATENCY, () -> stepCursorLeft(isSelecting));
+    }
+
+    private void stepCursorLeft(boolean isSelecting)
     {
         if (cursorLocation.column == 0)
         {
             if (cursorLocation.row == 0) return;
             cursorLocation.row--;
-            cursorLocation.column = lines.get(cursorLocation.row).length();
+            cursorLocation.column = storage.getLineLength(cursorLocation.row);
         }
         else
         {
@@ -64,9 +237,14 @@ public class TextEditorModel extends AbstractTextEditorModel
 
     public void moveCursorRight(boolean isSelecting)
     {
-        if (cursorLocation.column == lines.get(cursorLocation.row).length())
+        timed(MOVE_CURSOR_RIGHT_LATENCY, () -> stepCursorRight(isSelecting));
+    }
+
+    private void stepCursorRight(boolean isSelecting)
+    {
+        if (cursorLocation.column == storage.getLineLength(cursorLocation.row))
         {
-            if (cursorLocation.row == lines.size() - 1) return;
+            if (cursorLocation.row == storage.getLineCount() - 1) return;
             cursorLocation.row++;
             cursorLocation.column = 0;
         }
@@ -80,11 +258,16 @@ public class TextEditorModel extends AbstractTextEditorModel
     }
 
     public void moveCursorUp(boolean isSelecting)
+    {
+        timed(MOVE_CURSOR_UP_LATENCY, () -> stepCursorUp(isSelecting));
+    }
+
+    private void stepCursorUp(boolean isSelecting)
     {
         if (cursorLocation.row == 0) return;
         cursorLocation.row--;
 
-        cursorLocation.column = Math.min(cursorLocation.column, lines.get(cursorLocation.row).length());
+        cursorLocation.column = Math.min(cursorLocation.column, storage.getLineLength(cursorLocation.row));
 
         updateSelection(isSelecting);
         notifyCursorObservers();
@@ -92,10 +275,15 @@ public class TextEditorModel extends AbstractTextEditorModel
 
     public void moveCursorDown(boolean isSelecting)
     {
-        if (cursorLocation.row == lines.size() - 1) return;
+        timed(MOVE_CURSOR_DOWN_LATENCY, () -> stepCursorDown(isSelecting));
+    }
+
+    private void stepCursorDown(boolean isSelecting)
+    {
+        if (cursorLocation.row == storage.getLineCount() - 1) return;
         cursorLocation.row++;
 
-        cursorLocation.column = Math.min(cursorLocation.column, lines.get(cursorLocation.row).length());
+        cursorLocation.column = Math.min(cursorLocation.column, storage.getLineLength(cursorLocation.row));
 
         updateSelection(isSelecting);
         notifyCursorObservers();
@@ -103,16 +291,22 @@ public class TextEditorModel extends AbstractTextEditorModel
 
     public void moveCursorToStart()
     {
-        cursorLocation.row = 0;
-        cursorLocation.column = 0;
-        notifyCursorObservers();
+        timed(MOVE_CURSOR_TO_START_LATENCY, () ->
+        {
+            cursorLocation.row = 0;
+            cursorLocation.column = 0;
+            notifyCursorObservers();
+        });
     }
 
     public void moveCursorToEnd()
     {
-        cursorLocation.row = lines.size() - 1;
-        cursorLocation.column = lines.get(lines.size() - 1).length();
-        notifyCursorObservers();
+        timed(MOVE_CURSOR_TO_END_LATENCY, () ->
+        {
+            cursorLocation.row = storage.getLineCount() - 1;
+            cursorLocation.column = storage.getLineLength(cursorLocation.row);
+            notifyCursorObservers();
+        });
     }
 
     //==================================================================
@@ -145,44 +339,84 @@ public class TextEditorModel extends AbstractTextEditorModel
 
     public String getSelectedText()
     {
-        if(selectionRange.isEmpty()) return "";
+        return timedAndGet(GET_SELECTED_TEXT_LATENCY, () ->
+                selectionRange.isEmpty() ? "" : storage.getText(selectionRange.getStart(), selectionRange.getEnd()));
+    }
 
-        int startRow = selectionRange.getStart().row;
-        int endRow = selectionRange.getEnd().row;
+    public void selectAllText()
+    {
+        timed(SELECT_ALL_TEXT_LATENCY, () ->
+        {
+            selectionRange.setStart(new Location(0, 0));
 
-        StringBuilder sb = new StringBuilder();
+            int row = storage.getLineCount() - 1;
+            int column = storage.getLineLength(row);
+            selectionRange.setEnd(new Location(row, column));
+            notifySelectionObservers();
+        });
+    }
 
-        for(int row = startRow; row <= endRow; row++)
+    public void select(LocationRange range)
+    {
+        timed(SELECT_LATENCY, () ->
         {
-            int startIndex = 0;
-            int endIndex = lines.get(row).length();
+            selectionRange.setStart(range.getStart().clone());
+            selectionRange.setEnd(range.getEnd().clone());
+            cursorLocation = range.getEnd().clone();
+            notifySelectionObservers();
+            notifyCursorObservers();
+        });
+    }
 
-            if(row == startRow)
-                startIndex = selectionRange.getStart().column;
+    public UndoManager getUndoManager()
+    {
+        return undoManager;
+    }
 
-            if(row == endRow)
-                endIndex = selectionRange.getEnd().column;
+    /**
+     * Returns the live statistics of this document. They start being tracked on the first call,
+     * and large documents are counted a chunk at a time on the given executor.
+     */
+    public DocumentStatistics getStatistics(Executor executor)
+    {
+        if(statistics == null) statistics = new DocumentStatistics(this, executor);
+        return statistics;
+    }
 
-            sb.append(lines.get(row).substring(startIndex, endIndex));
-            if(row < endRow) sb.append('\n');
-        }
+    /**
+     * Like getStatistics(Executor), but statistics that are not tracked yet are counted right away.
+     */
+    public DocumentStatistics getStatistics()
+    {
+        return getStatistics(Runnable::run);
+    }
 
-        return sb.toString();
+    /**
+     * Starts keeping a trigram index of the lines, which lets searches skip lines that cannot match.
+     * Large documents are indexed a chunk at a time on the given executor; until that is done,
+     * or if the index would need more than memoryLimit bytes, searches read every line.
+     */
+    public void enableSearchIndex(long memoryLimit, Executor executor)
+    {
+        if(searchIndex == null) searchIndex = new TrigramIndex(this, executor, memoryLimit);
     }
 
-    public void selectAllText()
+    /**
+     * Returns the search index, or null if it has not been enabled.
+     */
+    public TrigramIndex getSearchIndex()
     {
-        selectionRange.setStart(new Location(0, 0));
+        return searchIndex;
+    }
 
-        int row = lines.size() - 1;
-        int column = lines.get(lines.size() - 1).length();
-        selectionRange.setEnd(new Location(row, column));
-        notifySelectionObservers();
+    public TextStorage snapshot()
+    {
+        return storage.snapshot();
     }
 
     public boolean isEmpty()
     {
-        return lines.size() == 1 && lines.get(0).isEmpty();
+        return storage.getLineCount() == 1 && storage.getLineLength(0) == 0;
     }
 
     //==================================================================
@@ -191,35 +425,149 @@ public class TextEditorModel extends AbstractTextEditorModel
 
     public void clear()
     {
-        List<String> newLines = new ArrayList<>();
-        newLines.add("");
-        modifyLines(newLines);
+        timed(CLEAR_LATENCY, () ->
+        {
+            List<String> newLines = new ArrayList<>();
+            newLines.add("");
+            modifyLines(newLines);
+        });
     }
 
+    // Only the lines that actually differ end up in the undo history.
     public void modifyLines(List<String> newLines)
     {
-        modifyLines(newLines, true);
+        timed(MODIFY_LINES_LATENCY, () -> modifyLines(newLines, true));
     }
 
     private void modifyLines(List<String> newLines, boolean shouldPush)
     {
+        // Lines still being loaded are not part of any delta, so the whole storage is swapped out instead.
+        if(!storage.isComplete())
+        {
+            TextStorage replacement = new LineListStorage();
+            replacement.setLines(newLines);
+            replaceStorage(replacement, shouldPush);
+            return;
+        }
+
+        LineDelta delta = LineDelta.between(getLines(), newLines);
+
+        if(shouldPush && !delta.isEmpty())
+        {
+            undoManager.push(new LineDeltaEditAction(delta));
+        }
+
+        moveCursorToStart();
+        delta.apply(this::replaceLines);
+        notifyTextObservers();
+    }
+
+    public void applyDelta(LineDelta delta)
+    {
+        timed(APPLY_DELTA_LATENCY, () -> applyDelta(delta, true));
+    }
+
+    private void applyDelta(LineDelta delta, boolean shouldPush)
+    {
+        if(delta.isEmpty()) return;
+
         if(shouldPush)
         {
-            UndoManager.getInstance().push(new ModifyLinesEditAction(lines, newLines));
+            undoManager.push(new LineDeltaEditAction(delta));
+        }
+
+        delta.apply(this::replaceLines);
+
+        cursorLocation.row = Math.min(cursorLocation.row, storage.getLineCount() - 1);
+        cursorLocation.column = Math.min(cursorLocation.column, storage.getLineLength(cursorLocation.row));
+        cancelSelection();
+        notifySelectionObservers();
+        notifyCursorObservers();
+        notifyTextObservers();
+    }
+
+    private void replaceLines(int start, int end, List<String> lines)
+    {
+        int lineCount = storage.getLineCount();
+
+        if(start == 0 && end == lineCount)
+        {
+            Location oldEnd = documentEnd();
+
+            TextReplaceEvent event = new TextReplaceEvent();
+            event.begin();
+            storage.setLines(lines);
+            event.commitReplace(0, Math.max(0, lines.size() - 1), TextReplaceEvent.UNKNOWN_LENGTH, TextReplaceEvent.UNKNOWN_LENGTH);
+
+            recordReplacedDocument(oldEnd);
+            return;
+        }
+
+        if(start == end && lines.isEmpty()) return;
+
+        // Whole lines are replaced, but a change at the end of the document has to take the line break before it.
+        boolean atDocumentEnd = end == lineCount;
+        Location changeStart = atDocumentEnd && (start == end || lines.isEmpty()) ? endOfLine(start - 1) : new Location(start, 0);
+        Location oldEnd;
+
+        if(start == end) oldEnd = changeStart;
+        else if(lines.isEmpty() && !atDocumentEnd) oldEnd = new Location(end, 0);
+        else oldEnd = endOfLine(end - 1);
+
+        long oldLength = lengthBetween(changeStart, oldEnd);
+
+        TextReplaceEvent event = new TextReplaceEvent();
+        event.begin();
+        storage.replaceLines(start, end, lines);
+
+        Location newEnd;
+        if(lines.isEmpty()) newEnd = changeStart;
+        else if(start == end && !atDocumentEnd) newEnd = new Location(start + lines.size(), 0);
+        else newEnd = endOfLine(start + lines.size() - 1);
+
+        long newLength = lengthBetween(changeStart, newEnd);
+        event.commitReplace(changeStart.row, newEnd.row, oldLength, newLength);
+
+        recordChange(new TextChangeEvent(changeStart, oldEnd, newEnd, oldLength, newLength));
+    }
+
+    private Location endOfLine(int row)
+    {
+        return new Location(row, storage.getLineLength(row));
+    }
+
+    public void replaceStorage(TextStorage newStorage)
+    {
+        timed(REPLACE_STORAGE_LATENCY, () -> replaceStorage(newStorage, true));
+    }
+
+    private void replaceStorage(TextStorage newStorage, boolean shouldPush)
+    {
+        if(shouldPush)
+        {
+            undoManager.push(new ReplaceStorageEditAction(storage, newStorage));
         }
 
         moveCursorToStart();
-        setLines(newLines);
+        Location oldEnd = documentEnd();
+        setStorage(newStorage);
+        recordReplacedDocument(oldEnd);
         notifyTextObservers();
     }
 
+    private void recordReplacedDocument(Location oldEnd)
+    {
+        Location start = new Location(0, 0);
+        recordChange(new TextChangeEvent(start, oldEnd, documentEnd(), TextChangeEvent.UNKNOWN_LENGTH, TextChangeEvent.UNKNOWN_LENGTH));
+    }
+
     //==================================================================
     //           Deleting a character using BACKSPACE button
     //==================================================================
 
     public void deleteBefore()
     {
-        deleteBefore(true);
+        timed(DELETE_BEFORE_LATENCY, () -> deleteBefore(true));
     }
 
     private void deleteBefore(boolean shouldPush)
@@ -234,13 +582,13 @@ public class TextEditorModel extends AbstractTextEditorModel
         }
         else
         {
-            deleted = lines.get(cursorLocation.row).charAt(cursorLocation.column - 1);
+            deleted = storage.charAt(cursorLocation.row, cursorLocation.column - 1);
             deleteBeforeStandard();
         }
 
         if(shouldPush)
         {
-            UndoManager.getInstance().push(new DeleteCharacterEditAction(deleted, cursorLocation.clone()));
+            undoManager.push(new DeleteCharacterEditAction(deleted, cursorLocation.clone()));
         }
 
         notifyTextObservers();
@@ -251,17 +599,13 @@ public class TextEditorModel extends AbstractTextEditorModel
         int row = cursorLocation.row;
         moveCursorLeft(false);
 
-        String currentLine = lines.get(row);
-        String previousLine = lines.get(row - 1);
-        lines.set(row - 1, previousLine + currentLine);
-        lines.remove(row);
+        deleteFromStorage(cursorLocation, new Location(row, 0));
     }
 
     private void deleteBeforeStandard()
     {
-        String line = lines.get(cursorLocation.row);
-        String modifiedLine = line.substring(0, cursorLocation.column - 1) + line.substring(cursorLocation.column);
-        lines.set(cursorLocation.row, modifiedLine);
+        Location previous = new Location(cursorLocation.row, cursorLocation.column - 1);
+        deleteFromStorage(previous, cursorLocation);
         moveCursorLeft(false);
     }
 
@@ -271,29 +615,29 @@ public class TextEditorModel extends AbstractTextEditorModel
 
     public void deleteAfter()
     {
-        deleteAfter(true);
+        timed(DELETE_AFTER_LATENCY, () -> deleteAfter(true));
     }
 
     private void deleteAfter(boolean shouldPush)
     {
         char deleted;
 
-        if(cursorLocation.column == lines.get(cursorLocation.row).length())
+        if(cursorLocation.column == storage.getLineLength(cursorLocation.row))
         {
-            if(cursorLocation.row == lines.size() - 1) return;
+            if(cursorLocation.row == storage.getLineCount() - 1) return;
 
             deleted = '\n';
             deleteAfterRightmost();
         }
         else
         {
-            deleted = lines.get(cursorLocation.row).charAt(cursorLocation.column);
+            deleted = storage.charAt(cursorLocation.row, cursorLocation.column);
             deleteAfterStandard();
         }
 
         if(shouldPush)
         {
-            UndoManager.getInstance().push(new DeleteCharacterEditAction(deleted, cursorLocation.clone()));
+            undoManager.push(new DeleteCharacterEditAction(deleted, cursorLocation.clone()));
         }
 
         notifyTextObservers();
@@ -301,17 +645,12 @@ public class TextEditorModel extends AbstractTextEditorModel
 
     private void deleteAfterRightmost()
     {
-        String currentLine = lines.get(cursorLocation.row);
-        String nextLine = lines.get(cursorLocation.row + 1);
-        lines.set(cursorLocation.row, currentLine + nextLine);
-        lines.remove(cursorLocation.row + 1);
+        deleteFromStorage(cursorLocation, new Location(cursorLocation.row + 1, 0));
     }
 
     private void deleteAfterStandard()
     {
-        String line = lines.get(cursorLocation.row);
-        String modifiedLine = line.substring(0, cursorLocation.column) + line.substring(cursorLocation.column + 1);
-        lines.set(cursorLocation.row, modifiedLine);
+        deleteFromStorage(cursorLocation, new Location(cursorLocation.row, cursorLocation.column + 1));
     }
 
     //==================================================================
@@ -320,7 +659,7 @@ public class TextEditorModel extends AbstractTextEditorModel
 
     public void deleteSelectedRange()
     {
-        deleteSelectedRange(true);
+        timed(DELETE_SELECTED_RANGE_LATENCY, () -> deleteSelectedRange(true));
     }
 
     private void deleteSelectedRange(boolean shouldPush)
@@ -330,7 +669,7 @@ public class TextEditorModel extends AbstractTextEditorModel
             String text = getSelectedText();
             Location textStart = selectionRange.getStart().clone();
             Location textEnd = selectionRange.getEnd().clone();
-            UndoManager.getInstance().push(new DeleteTextEditAction(text, textStart, textEnd));
+            undoManager.push(new DeleteTextEditAction(text, textStart, textEnd));
         }
 
         deleteRange(selectionRange);
@@ -342,15 +681,38 @@ public class TextEditorModel extends AbstractTextEditorModel
 
     public void deleteRange(LocationRange range)
     {
-        Location start = range.getStart();
-        Location end = range.getEnd();
+        timed(DELETE_RANGE_LATENCY, () ->
+        {
+            deleteFromStorage(range.getStart(), range.getEnd());
 
-        String startLine = lines.get(start.row).substring(0, start.column);
-        String endLine = lines.get(end.row).substring(end.column);
-        lines.set(start.row, startLine + endLine);
-        lines.subList(start.row + 1, end.row + 1).clear();
+            notifyTextObservers();
+        });
+    }
 
-        notifyTextObservers();
+    private void deleteFromStorage(Location start, Location end)
+    {
+        long length = lengthBetween(start, end);
+        if(length == 0) return;
+
+        TextDeleteEvent event = new TextDeleteEvent();
+        event.begin();
+        storage.delete(start, end);
+        event.commitChange(start.row, end.row, length);
+
+        recordChange(new TextChangeEvent(start, end, start, length, 0));
+    }
+
+    private long lengthBetween(Location start, Location end)
+    {
+        if(start.row == end.row) return end.column - start.column;
+
+        long length = storage.getLineLength(start.row) - start.column + 1;
+        for(int row = start.row + 1; row < end.row; row++)
+        {
+            length += storage.getLineLength(row) + 1;
+        }
+
+        return length + end.column;
     }
 
     //==================================================================
@@ -359,14 +721,14 @@ public class TextEditorModel extends AbstractTextEditorModel
 
     public void insert(char c)
     {
-        insert(c, true);
+        timed(INSERT_CHAR_LATENCY, () -> insert(c, true));
     }
 
     private void insert(char c, boolean shouldPush)
     {
         if(shouldPush)
         {
-            UndoManager.getInstance().push(new InsertCharacterEditAction(c, cursorLocation.clone()));
+            undoManager.push(new InsertCharacterEditAction(c, cursorLocation.clone()));
         }
 
         if(c == '\n')
@@ -389,17 +751,23 @@ public class TextEditorModel extends AbstractTextEditorModel
 
     private void insertNewLine()
     {
-        String prefix = lines.get(cursorLocation.row).substring(0, cursorLocation.column);
-        String suffix = lines.get(cursorLocation.row).substring(cursorLocation.column);
-        lines.set(cursorLocation.row, prefix);
-        lines.add(cursorLocation.row + 1, suffix);
+        TextInsertEvent event = new TextInsertEvent();
+        event.begin();
+        storage.insert(cursorLocation, '\n');
+        event.commitChange(cursorLocation.row, cursorLocation.row + 1, 1);
+
+        recordChange(new TextChangeEvent(cursorLocation, cursorLocation, new Location(cursorLocation.row + 1, 0), 0, 1));
     }
 
     private void insertStandard(char c)
     {
-        String line = lines.get(cursorLocation.row);
-        line = line.substring(0, cursorLocation.column) + c + line.substring(cursorLocation.column);
-        lines.set(cursorLocation.row, line);
+        TextInsertEvent event = new TextInsertEvent();
+        event.begin();
+        storage.insert(cursorLocation, c);
+        event.commitChange(cursorLocation.row, cursorLocation.row, 1);
+
+        Location end = new Location(cursorLocation.row, cursorLocation.column + 1);
+        recordChange(new TextChangeEvent(cursorLocation, cursorLocation, end, 0, 1));
     }
 
     //==================================================================
@@ -408,51 +776,87 @@ public class TextEditorModel extends AbstractTextEditorModel
 
     public void insert(String text)
     {
-        insert(text, true);
+        timed(INSERT_TEXT_LATENCY, () -> insert(text, true));
     }
 
     private void insert(String text, boolean shouldPush)
     {
         var continuousStrings = text.split("\n", -1);
 
-        if(shouldPush)
-        {
-            Location textStart = cursorLocation.clone();
-            Location textEnd = cursorLocation.clone();
+        Location textStart = cursorLocation.clone();
+        Location textEnd = cursorLocation.clone();
 
-            int nStrings = continuousStrings.length;
-            textEnd.row += nStrings - 1;
+        int nStrings = continuousStrings.length;
+        textEnd.row += nStrings - 1;
 
-            if(nStrings == 1)
-            {
-                textEnd.column += continuousStrings[0].length();
-            }
-            else
-            {
-                textEnd.column = continuousStrings[nStrings - 1].length();
-            }
+        if(nStrings == 1)
+        {
+            textEnd.column += continuousStrings[0].length();
+        }
+        else
+        {
+            textEnd.column = continuousStrings[nStrings - 1].length();
+        }
 
-            UndoManager.getInstance().push(new InsertTextEditAction(text, textStart, textEnd));
+        if(shouldPush)
+        {
+            undoManager.push(new InsertTextEditAction(text, textStart, textEnd.clone()));
         }
 
-        // Ignore the last element as it should not produce '\n'.
-        for(int i = 0; i < continuousStrings.length - 1; i++)
+        // The whole text goes to the storage at once, so pasting many lines is a single edit.
+        if(!text.isEmpty())
         {
-            insertContinuous(continuousStrings[i]);
-            insert('\n', false);
+            TextInsertEvent event = new TextInsertEvent();
+            event.begin();
+            storage.insert(textStart, text);
+            event.commitChange(textStart.row, textEnd.row, text.length());
+
+            recordChange(new TextChangeEvent(textStart, textStart, textEnd, 0, text.length()));
         }
 
-        // Insert the last element.
-        insertContinuous(continuousStrings[continuousStrings.length - 1]);
+        cursorLocation = textEnd;
+        cancelSelection();
+        notifySelectionObservers();
+        notifyCursorObservers();
         notifyTextObservers();
     }
 
-    private void insertContinuous(String text)
+    //==================================================================
+    //                          Searching
+    //==================================================================
+
+    public LocationRange find(SearchQuery query, Location from)
+    {
+        return timedAndGet(FIND_LATENCY, () -> query.findNext(storage, searchIndex, from));
+    }
+
+    /**
+     * Replaces the selection if it is a match of the query. Returns false and changes nothing otherwise.
+     */
+    public boolean replaceSelection(SearchQuery query, String replacement)
     {
-        String line = lines.get(cursorLocation.row);
-        line = line.substring(0, cursorLocation.column) + text + line.substring(cursorLocation.column);
-        lines.set(cursorLocation.row, line);
-        cursorLocation.column += text.length();
+        return timedAndGet(REPLACE_SELECTION_LATENCY, () ->
+        {
+            String text = query.replacementFor(storage, selectionRange, replacement);
+            if(text == null) return false;
+
+            if(!selectionRange.isEmpty()) deleteSelectedRange();
+            insert(text);
+            return true;
+        });
+    }
+
+    /**
+     * Replaces every match as a single edit and returns the number of replaced matches.
+     */
+    public int replaceAll(SearchQuery query, String replacement)
+    {
+        return timedAndGet(REPLACE_ALL_LATENCY, () ->
+        {
+            Replacements replacements = query.replaceAll(storage, searchIndex, replacement);
+            applyDelta(replacements.getDelta());
+            return replacements.getCount();
+        });
     }
 
     //==================================================================
@@ -461,7 +865,7 @@ public class TextEditorModel extends AbstractTextEditorModel
 
     public Iterator<String> allLines()
     {
-        return lines.iterator();
+        return storage.getLines().iterator();
     }
 
     public Iterator<String> linesRange(int start, int end)
@@ -490,7 +894,7 @@ public class TextEditorModel extends AbstractTextEditorModel
         public String next()
         {
             if(!hasNext()) throw new IndexOutOfBoundsException();
-            return lines.get(current++);
+            return storage.getLine(current++);
         }
     }
 
@@ -498,14 +902,41 @@ public class TextEditorModel extends AbstractTextEditorModel
     //                       Edit actions
     //==================================================================
 
+    private static Location endOf(Location start, CharSequence text)
+    {
+        int row = start.row;
+        int column = start.column;
+
+        for(int i = 0; i < text.length(); i++)
+        {
+            if(text.charAt(i) == '\n')
+            {
+                row++;
+                column = 0;
+            }
+            else
+            {
+                column++;
+            }
+        }
+
+        return new Location(row, column);
+    }
+
+    private static boolean isLineBreak(CharSequence text)
+    {
+        return text.length() == 1 && text.charAt(0) == '\n';
+    }
+
+    // Keystrokes typed one after another on the same line grow a single action.
     private class InsertCharacterEditAction implements EditAction
     {
-        private char character;
+        private StringBuilder typed = new StringBuilder(1);
         private Location location;
 
         private InsertCharacterEditAction(char character, Location cursorLocation)
         {
-            this.character = character;
+            this.typed.append(character);
             this.location = cursorLocation;
         }
 
@@ -513,26 +944,45 @@ public class TextEditorModel extends AbstractTextEditorModel
         public void executeDo()
         {
             setCursorLocation(location.clone());
-            insert(character, false);
+            insert(typed.toString(), false);
         }
 
         @Override
         public void executeUndo()
         {
-            setCursorLocation(location.clone());
-            deleteAfter(false);
+            setSelectionRange(new LocationRange(location.clone(), endOf(location, typed)));
+            deleteSelectedRange(false);
+        }
+
+        @Override
+        public boolean mergeWith(EditAction next)
+        {
+            if(!(next instanceof InsertCharacterEditAction)) return false;
+
+            var other = (InsertCharacterEditAction) next;
+            if(isLineBreak(typed) || isLineBreak(other.typed)) return false;
+            if(!other.location.equals(endOf(location, typed))) return false;
+
+            typed.append(other.typed);
+            return true;
+        }
+
+        @Override
+        public long estimateSize()
+        {
+            return 64 + 2L * typed.capacity();
         }
     }
 
     private class InsertTextEditAction implements EditAction
     {
-        private String text;
+        private SpillableText text;
         private Location textStart;
         private Location textEnd;
 
         private InsertTextEditAction(String text, Location textStart, Location textEnd)
         {
-            this.text = text;
+            this.text = new SpillableText(text);
             this.textStart = textStart;
             this.textEnd = textEnd;
         }
@@ -541,7 +991,7 @@ public class TextEditorModel extends AbstractTextEditorModel
         public void executeDo()
         {
             setCursorLocation(textStart.clone());
-            insert(text, false);
+            insert(text.get(), false);
         }
 
         @Override
@@ -550,43 +1000,87 @@ public class TextEditorModel extends AbstractTextEditorModel
             setSelectionRange(new LocationRange(textStart.clone(), textEnd.clone()));
             deleteSelectedRange(false);
         }
+
+        @Override
+        public long estimateSize()
+        {
+            return 64 + text.estimateSize();
+        }
+
+        @Override
+        public void spill(UndoSpillFile file) throws IOException
+        {
+            text.spill(file);
+        }
     }
 
+    // Repeated BACKSPACE grows the run to the left, repeated DELETE to the right.
     private class DeleteCharacterEditAction implements EditAction
     {
-        private char deleted;
+        private StringBuilder deleted = new StringBuilder(1);
         private Location deletedLocation;
 
         private DeleteCharacterEditAction(char deleted, Location deletedLocation)
         {
-            this.deleted = deleted;
+            this.deleted.append(deleted);
             this.deletedLocation = deletedLocation;
         }
 
         @Override
         public void executeDo()
         {
-            setCursorLocation(deletedLocation.clone());
-            deleteAfter(false);
+            setSelectionRange(new LocationRange(deletedLocation.clone(), endOf(deletedLocation, deleted)));
+            deleteSelectedRange(false);
         }
 
         @Override
         public void executeUndo()
         {
             setCursorLocation(deletedLocation.clone());
-            insert(deleted, false);
+            insert(deleted.toString(), false);
+        }
+
+        @Override
+        public boolean mergeWith(EditAction next)
+        {
+            if(!(next instanceof DeleteCharacterEditAction)) return false;
+
+            var other = (DeleteCharacterEditAction) next;
+            if(isLineBreak(deleted) || isLineBreak(other.deleted)) return false;
+            if(other.deletedLocation.row != deletedLocation.row) return false;
+
+            if(other.deletedLocation.column == deletedLocation.column)
+            {
+                deleted.append(other.deleted);
+                return true;
+            }
+
+            if(other.deletedLocation.column + other.deleted.length() == deletedLocation.column)
+            {
+                deleted.insert(0, other.deleted);
+                deletedLocation = other.deletedLocation;
+                return true;
+            }
+
+            return false;
+        }
+
+        @Override
+        public long estimateSize()
+        {
+            return 64 + 2L * deleted.capacity();
         }
     }
 
     private class DeleteTextEditAction implements EditAction
     {
-        private String text;
+        private SpillableText text;
         private Location textStart;
         private Location textEnd;
 
         public DeleteTextEditAction(String text, Location textStart, Location textEnd)
         {
-            this.text = text;
+            this.text = new SpillableText(text);
             this.textStart = textStart;
             this.textEnd = textEnd;
         }
@@ -602,31 +1096,77 @@ public class TextEditorModel extends AbstractTextEditorModel
         public void executeUndo()
         {
             setCursorLocation(textStart.clone());
-            insert(text, false);
+            insert(text.get(), false);
+        }
+
+        @Override
+        public long estimateSize()
+        {
+            return 64 + text.estimateSize();
+        }
+
+        @Override
+        public void spill(UndoSpillFile file) throws IOException
+        {
+            text.spill(file);
+        }
+    }
+
+    private class LineDeltaEditAction implements EditAction
+    {
+        private LineDelta delta;
+
+        public LineDeltaEditAction(LineDelta delta)
+        {
+            this.delta = delta;
+        }
+
+        @Override
+        public void executeDo()
+        {
+            applyDelta(delta, false);
+        }
+
+        @Override
+        public void executeUndo()
+        {
+            applyDelta(delta.inverse(), false);
+        }
+
+        @Override
+        public long estimateSize()
+        {
+            return 64 + delta.estimateSize();
+        }
+
+        @Override
+        public void spill(UndoSpillFile file) throws IOException
+        {
+            delta.spill(file);
         }
     }
 
-    private class ModifyLinesEditAction implements EditAction
+    private class ReplaceStorageEditAction implements EditAction
     {
-        private List<String> oldLines;
-        private List<String> newLines;
+        private TextStorage oldStorage;
+        private TextStorage newStorage;
 
-        public ModifyLinesEditAction(List<String> oldLines, List<String> newLines)
+        public ReplaceStorageEditAction(TextStorage oldStorage, TextStorage newStorage)
         {
-            this.oldLines = oldLines;
-            this.newLines = newLines;
+            this.oldStorage = oldStorage;
+            this.newStorage = newStorage;
         }
 
         @Override
         public void executeDo()
         {
-            modifyLines(newLines, false);
+            replaceStorage(newStorage, false);
         }
 
         @Override
         public void executeUndo()
         {
-            modifyLines(oldLines, false);
+            replaceStorage(oldStorage, false);
         }
     }
 }
@@ -1,59 +1,453 @@
 package texteditor;
 
+import texteditor.io.UndoSpillFile;
+import texteditor.metrics.EditorMetrics;
+import texteditor.metrics.FanOutCounter;
+import texteditor.metrics.LatencyHistogram;
 import texteditor.observer.UndoManagerObserver;
 
+import java.io.Closeable;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Stack;
+import java.util.Set;
 
-public class UndoManager
+/**
+ * Keeps the edit history of one document as a tree. Undoing and then editing starts a new branch
+ * instead of discarding the undone edits, and any node of the tree can be jumped to.
+ * Instances are not thread-safe; each one belongs to the thread that edits its document.
+ */
+public class UndoManager implements Closeable
 {
-    private static UndoManager instance = new UndoManager();
-    private Stack<EditAction> undoStack = new Stack<>();
-    private Stack<EditAction> redoStack = new Stack<>();
+    private static final long MERGE_WINDOW_NANOS = 1_000_000_000L;
+    private static final long MIN_SPILL_SIZE = 4096;
+    private static final int DEFAULT_MAX_NODES = 10_000;
+
+    // Only calls that change the history are timed; pushes inside a compound action just collect it.
+    private static final LatencyHistogram UNDO_LATENCY = EditorMetrics.latency("undoManager.undo");
+    private static final LatencyHistogram REDO_LATENCY = EditorMetrics.latency("undoManager.redo");
+    private static final LatencyHistogram PUSH_LATENCY = EditorMetrics.latency("undoManager.push");
+    private static final FanOutCounter OBSERVER_FAN_OUT = EditorMetrics.fanOut("undoManager");
+
+    private final Node root = new Node(null, null, 0);
+    private Node current = root;
+
+    // Every node in the order it was created, which is also the order of their timestamps.
+    private final List<Node> nodes = new ArrayList<>();
+    private int lastId;
 
     private List<UndoManagerObserver> observers = new ArrayList<>();
+    private boolean canUndo;
+    private boolean canRedo;
+
+    private long lastPushTime;
+    private boolean canMergeWithTop;
 
-    private UndoManager() {}
+    private int compoundDepth;
+    private List<EditAction> compoundActions = new ArrayList<>();
 
-    public static UndoManager getInstance()
+    private long memoryBudget = Long.MAX_VALUE;
+    private long memoryUsed;
+    private int spillCursor;
+    private UndoSpillFile spillFile;
+
+    private int maxNodes = DEFAULT_MAX_NODES;
+    private int pruneAt = DEFAULT_MAX_NODES;
+
+    /**
+     * Forgets the whole history and releases its spill file. The document itself is left as it is.
+     */
+    public void clear()
     {
-        return instance;
+        root.children.clear();
+        root.activeChild = null;
+        current = root;
+        nodes.clear();
+        lastId = 0;
+        pruneAt = maxNodes;
+
+        canMergeWithTop = false;
+        memoryUsed = 0;
+        spillCursor = 0;
+        closeSpillFile();
+
+        notifyObservers();
     }
 
-    public void undo()
+    @Override
+    public void close()
     {
-        if(undoStack.isEmpty()) return;
+        clear();
+    }
 
-        EditAction action = undoStack.pop();
-        redoStack.push(action);
-        action.executeUndo();
+    public void undo()
+    {
+        if(current == root) return;
 
-        if(undoStack.isEmpty()) notifyObserversUndoStackEmpty();
-        if(redoStack.size() == 1) notifyObserversRedoStackNotEmpty();
+        long start = UNDO_LATENCY.start();
+        canMergeWithTop = false;
+        stepUp();
+        afterMove();
+        UNDO_LATENCY.stop(start);
     }
 
     public void redo()
     {
-        if(redoStack.isEmpty()) return;
+        if(current.activeChild == null) return;
 
-        EditAction action = redoStack.pop();
-        undoStack.push(action);
-        action.executeDo();
-
-        if(redoStack.isEmpty()) notifyObserversRedoStackEmpty();
-        if(undoStack.size() == 1) notifyObserversUndoStackNotEmpty();
+        long start = REDO_LATENCY.start();
+        canMergeWithTop = false;
+        stepDown(current.activeChild);
+        afterMove();
+        REDO_LATENCY.stop(start);
     }
 
     public void push(EditAction action)
     {
-        redoStack.clear();
-        undoStack.push(action);
+        if(compoundDepth > 0)
+        {
+            compoundActions.add(action);
+            return;
+        }
+
+        long start = PUSH_LATENCY.start();
+
+        // An edit made shortly after the previous one may simply extend it, e.g. while typing a word.
+        // Nodes that already have branches below them are never changed.
+        long now = System.nanoTime();
+        boolean mergeable = canMergeWithTop && now - lastPushTime < MERGE_WINDOW_NANOS && current != root && current.children.isEmpty();
+        long currentSize = mergeable ? current.action.estimateSize() : 0;
+        lastPushTime = now;
+        canMergeWithTop = true;
+
+        if(mergeable && current.action.mergeWith(action))
+        {
+            current.timestamp = System.currentTimeMillis();
+            memoryUsed += current.action.estimateSize() - currentSize;
+        }
+        else
+        {
+            Node node = new Node(current, action, ++lastId);
+            current.children.add(node);
+            current.activeChild = node;
+            current = node;
+
+            nodes.add(node);
+            memoryUsed += action.estimateSize();
+            enforceNodeLimit();
+        }
+
+        enforceMemoryBudget();
+        notifyObservers();
+        PUSH_LATENCY.stop(start);
+    }
+
+    /**
+     * Actions pushed until the matching endCompound call are undone and redone as a single action.
+     */
+    public void beginCompound()
+    {
+        compoundDepth++;
+    }
 
-        notifyObserversRedoStackEmpty();
-        if(undoStack.size() == 1) notifyObserversUndoStackNotEmpty();
+    public void endCompound()
+    {
+        if(--compoundDepth > 0 || compoundActions.isEmpty()) return;
+
+        List<EditAction> actions = compoundActions;
+        compoundActions = new ArrayList<>();
+        push(actions.size() == 1 ? actions.get(0) : new CompoundEditAction(actions));
     }
 
+    //==================================================================
+    //                      Navigating the tree
+    //==================================================================
+
+    public Node getRoot()
+    {
+        return root;
+    }
+
+    public Node getCurrent()
+    {
+        return current;
+    }
+
+    /**
+     * Returns the last node of every branch, oldest first.
+     */
+    public List<Node> getBranches()
+    {
+        List<Node> leaves = new ArrayList<>();
+
+        for(Node node : nodes)
+            if(node.children.isEmpty()) leaves.add(node);
+
+        return leaves;
+    }
+
+    /**
+     * Moves the document to the state after the given node by undoing up to the common
+     * ancestor and redoing down to the node. Only the edits on that path are executed.
+     * Every step notifies the observers of the document; TextEditorModel.jumpTo batches them.
+     */
+    public void jumpTo(Node target)
+    {
+        if(target == current) return;
+        canMergeWithTop = false;
+
+        List<Node> descent = new ArrayList<>();
+        Node up = current;
+        Node down = target;
+
+        while(up.depth > down.depth) up = up.parent;
+        while(down.depth > up.depth)
+        {
+            descent.add(down);
+            down = down.parent;
+        }
+
+        while(up != down)
+        {
+            up = up.parent;
+            descent.add(down);
+            down = down.parent;
+        }
+
+        while(current != up) stepUp();
+
+        Collections.reverse(descent);
+        for(Node node : descent) stepDown(node);
+
+        afterMove();
+    }
+
+    /**
+     * Jumps to the newest node created at or before the given time, in milliseconds since the epoch.
+     */
+    public void jumpToTime(long timestamp)
+    {
+        int low = 0;
+        int high = nodes.size();
+
+        while(low < high)
+        {
+            int middle = (low + high) >>> 1;
+            if(nodes.get(middle).timestamp <= timestamp) low = middle + 1;
+            else high = middle;
+        }
+
+        jumpTo(low == 0 ? root : nodes.get(low - 1));
+    }
+
+    private void stepUp()
+    {
+        Node node = current;
+        current = node.parent;
+        current.activeChild = node;
+
+        long sizeBefore = node.action.estimateSize();
+        node.action.executeUndo();
+        accountReload(node.action, sizeBefore);
+    }
+
+    private void stepDown(Node node)
+    {
+        current.activeChild = node;
+        current = node;
+
+        long sizeBefore = node.action.estimateSize();
+        node.action.executeDo();
+        accountReload(node.action, sizeBefore);
+    }
+
+    private void afterMove()
+    {
+        enforceMemoryBudget();
+        notifyObservers();
+    }
+
+    public static final class Node
+    {
+        private final Node parent;
+        private final EditAction action;
+        private final int id;
+        private final int depth;
+        private final List<Node> children = new ArrayList<>(1);
+        private Node activeChild;
+        private long timestamp = System.currentTimeMillis();
+
+        private Node(Node parent, EditAction action, int id)
+        {
+            this.parent = parent;
+            this.action = action;
+            this.id = id;
+            this.depth = parent == null ? 0 : parent.depth + 1;
+        }
+
+        public Node getParent()
+        {
+            return parent;
+        }
+
+        public List<Node> getChildren()
+        {
+            return Collections.unmodifiableList(children);
+        }
+
+        /**
+         * Sequence number of the edit, starting at 1. The root, which stands for the unedited document, is 0.
+         */
+        public int getId()
+        {
+            return id;
+        }
+
+        public int getDepth()
+        {
+            return depth;
+        }
+
+        public long getTimestamp()
+        {
+            return timestamp;
+        }
+    }
+
+    //==================================================================
+    //                      Pruning old branches
+    //==================================================================
+
+    /**
+     * Limits the number of edits kept in the tree. Once there are more, the oldest branches that
+     * leave the path through the current node are dropped. That path itself is never pruned.
+     */
+    public void setNodeLimit(int maxNodes)
+    {
+        this.maxNodes = maxNodes;
+        pruneAt = maxNodes;
+        enforceNodeLimit();
+    }
+
+    private void enforceNodeLimit()
+    {
+        if(nodes.size() <= pruneAt) return;
+
+        // Pruning leaves some room, and if the path alone is too long, it waits for as much growth before trying again.
+        pruneBranches(maxNodes - maxNodes / 4);
+        pruneAt = Math.max(maxNodes, nodes.size() + maxNodes / 4);
+    }
+
+    private void pruneBranches(int targetSize)
+    {
+        Set<Node> path = new HashSet<>();
+        for(Node node = current; node != null; node = node.parent) path.add(node);
+        for(Node node = current.activeChild; node != null; node = node.activeChild) path.add(node);
+
+        Set<Node> pruned = new HashSet<>();
+        List<Node> pending = new ArrayList<>();
+
+        // Nodes are in the order they were created, so the oldest branches come first.
+        for(Node node : nodes)
+        {
+            if(nodes.size() - pruned.size() <= targetSize) break;
+            if(path.contains(node) || !path.contains(node.parent)) continue;
+
+            node.parent.children.remove(node);
+            pending.add(node);
+
+            while(!pending.isEmpty())
+            {
+                Node removed = pending.remove(pending.size() - 1);
+                pruned.add(removed);
+                pending.addAll(removed.children);
+                memoryUsed -= removed.action.estimateSize();
+            }
+        }
+
+        if(pruned.isEmpty()) return;
+
+        nodes.removeIf(pruned::contains);
+        spillCursor = 0;
+    }
+
+    //==================================================================
+    //                      Memory budget
+    //==================================================================
+
+    /**
+     * Limits the estimated memory held by the history. Once it is exceeded, the oldest
+     * edits are moved to a temporary spill file.
+     */
+    public void setMemoryBudget(long bytes)
+    {
+        memoryBudget = bytes;
+        enforceMemoryBudget();
+    }
+
+    public long getMemoryUsed()
+    {
+        return memoryUsed;
+    }
+
+    // Executing a spilled edit reads it back, so older nodes have to be looked at again.
+    private void accountReload(EditAction action, long sizeBefore)
+    {
+        long grown = action.estimateSize() - sizeBefore;
+        memoryUsed += grown;
+        if(grown > 0) spillCursor = 0;
+    }
+
+    private void enforceMemoryBudget()
+    {
+        if(memoryUsed <= memoryBudget) return;
+
+        try
+        {
+            for(; spillCursor < nodes.size() && memoryUsed > memoryBudget; spillCursor++)
+                spill(nodes.get(spillCursor).action);
+        }
+        catch (IOException e)
+        {
+            // Keep everything in memory rather than lose history.
+            e.printStackTrace();
+            memoryBudget = Long.MAX_VALUE;
+        }
+    }
+
+    private void closeSpillFile()
+    {
+        if(spillFile == null) return;
+
+        try
+        {
+            spillFile.close();
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+        }
+
+        spillFile = null;
+    }
+
+    private void spill(EditAction action) throws IOException
+    {
+        long size = action.estimateSize();
+        if(size < MIN_SPILL_SIZE) return;
+
+        if(spillFile == null) spillFile = new UndoSpillFile();
+
+        action.spill(spillFile);
+        memoryUsed -= size - action.estimateSize();
+    }
+
+    //==================================================================
+    //                          Observers
+    //==================================================================
+
     public void addObserver(UndoManagerObserver observer)
     {
         observers.add(observer);
@@ -64,26 +458,50 @@ public class UndoManager
         observers.remove(observer);
     }
 
+    private void notifyObservers()
+    {
+        boolean undoable = current != root;
+        boolean redoable = current.activeChild != null;
+
+        if(undoable != canUndo)
+        {
+            canUndo = undoable;
+            if(undoable) notifyObserversUndoStackNotEmpty();
+            else notifyObserversUndoStackEmpty();
+        }
+
+        if(redoable != canRedo)
+        {
+            canRedo = redoable;
+            if(redoable) notifyObserversRedoStackNotEmpty();
+            else notifyObserversRedoStackEmpty();
+        }
+    }
+
     private void notifyObserversUndoStackEmpty()
     {
+        OBSERVER_FAN_OUT.record(observers.size());
         for(var observer : observers)
             observer.onUndoStackEmpty();
     }
 
     private void notifyObserversUndoStackNotEmpty()
     {
+        OBSERVER_FAN_OUT.record(observers.size());
         for(var observer : observers)
             observer.onUndoStackNotEmpty();
     }
 
     private void notifyObserversRedoStackEmpty()
     {
+        OBSERVER_FAN_OUT.record(observers.size());
         for(var observer : observers)
             observer.onRedoStackEmpty();
     }
 
     private void notifyObserversRedoStackNotEmpty()
     {
+        OBSERVER_FAN_OUT.record(observers.size());
         for(var observer : observers)
             observer.onRedoStackNotEmpty();
     }
@@ -0,0 +1,103 @@
+package texteditor.analysis;
+
+/**
+ * Counts gathered by TextAnalysis. Characters are classified with Character.getType,
+ * so the histogram is indexed by constants such as Character.UPPERCASE_LETTER.
+ */
+public final class AnalysisResult
+{
+    private static final int TYPE_COUNT = 32;
+
+    long lines;
+    long words;
+    long whitespace;
+    final long[] types = new long[TYPE_COUNT];
+    int longestLineRow = -1;
+    int longestLineLength = -1;
+
+    public long getLineCount()
+    {
+        return lines;
+    }
+
+    public long getWordCount()
+    {
+        return words;
+    }
+
+    public long getCharacterCount()
+    {
+        long characters = 0;
+        for(long count : types) characters += count;
+        return characters;
+    }
+
+    /**
+     * Number of characters of the given Character.getType class.
+     */
+    public long getTypeCount(int characterType)
+    {
+        return types[characterType];
+    }
+
+    public long getLetterCount()
+    {
+        return types[Character.UPPERCASE_LETTER] + types[Character.LOWERCASE_LETTER] + types[Character.TITLECASE_LETTER]
+                + types[Character.MODIFIER_LETTER] + types[Character.OTHER_LETTER];
+    }
+
+    public long getDigitCount()
+    {
+        return types[Character.DECIMAL_DIGIT_NUMBER];
+    }
+
+    public long getWhitespaceCount()
+    {
+        return whitespace;
+    }
+
+    public long getPunctuationCount()
+    {
+        return types[Character.CONNECTOR_PUNCTUATION] + types[Character.DASH_PUNCTUATION] + types[Character.START_PUNCTUATION]
+                + types[Character.END_PUNCTUATION] + types[Character.INITIAL_QUOTE_PUNCTUATION]
+                + types[Character.FINAL_QUOTE_PUNCTUATION] + types[Character.OTHER_PUNCTUATION];
+    }
+
+    public long getSymbolCount()
+    {
+        return types[Character.MATH_SYMBOL] + types[Character.CURRENCY_SYMBOL] + types[Character.MODIFIER_SYMBOL]
+                + types[Character.OTHER_SYMBOL];
+    }
+
+    /**
+     * Row of the longest line; the first one if several are equally long.
+     */
+    public int getLongestLineRow()
+    {
+        return longestLineRow;
+    }
+
+    public int getLongestLineLength()
+    {
+        return longestLineLength;
+    }
+
+    // The other result must cover rows after the ones covered by this one.
+    void add(AnalysisResult other)
+    {
+        lines += other.lines;
+        words += other.words;
+        whitespace += other.whitespace;
+
+        for(int i = 0; i < TYPE_COUNT; i++)
+        {
+            types[i] += other.types[i];
+        }
+
+        if(other.longestLineLength > longestLineLength)
+        {
+            longestLineRow = other.longestLineRow;
+            longestLineLength = other.longestLineLength;
+        }
+    }
+}
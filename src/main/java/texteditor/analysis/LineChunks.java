@@ -0,0 +1,91 @@
+package texteditor.analysis;
+
+import texteditor.plugin.PluginProgress;
+import texteditor.storage.TextStorage;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BinaryOperator;
+
+/**
+ * Splits a range of a snapshot's lines into chunks, scans them in a fork-join pool, each with
+ * its own reader of the snapshot, and combines the partial results in document order.
+ */
+final class LineChunks
+{
+    private static final int CHUNK_LINES = 16384;
+
+    interface Scanner<R>
+    {
+        R scan(TextStorage reader, int start, int end);
+    }
+
+    private LineChunks()
+    {
+    }
+
+    static <R> R process(TextStorage snapshot, int start, int end, ForkJoinPool pool, PluginProgress progress,
+                         Scanner<R> scanner, BinaryOperator<R> combiner)
+    {
+        if(start >= end) return scanner.scan(snapshot, start, end);
+
+        return pool.invoke(new ChunkTask<>(snapshot, start, end, new Shared<>(end - start, progress, scanner, combiner)));
+    }
+
+    private static class Shared<R>
+    {
+        private final AtomicLong scannedLines = new AtomicLong();
+        private final int totalLines;
+        private final PluginProgress progress;
+        private final Scanner<R> scanner;
+        private final BinaryOperator<R> combiner;
+
+        private Shared(int totalLines, PluginProgress progress, Scanner<R> scanner, BinaryOperator<R> combiner)
+        {
+            this.totalLines = totalLines;
+            this.progress = progress;
+            this.scanner = scanner;
+            this.combiner = combiner;
+        }
+    }
+
+    private static class ChunkTask<R> extends RecursiveTask<R>
+    {
+        private final TextStorage snapshot;
+        private final int start;
+        private final int end;
+        private final Shared<R> shared;
+
+        private ChunkTask(TextStorage snapshot, int start, int end, Shared<R> shared)
+        {
+            this.snapshot = snapshot;
+            this.start = start;
+            this.end = end;
+            this.shared = shared;
+        }
+
+        @Override
+        protected R compute()
+        {
+            if(shared.progress.isCancelled()) throw new CancellationException();
+
+            if(end - start <= CHUNK_LINES)
+            {
+                R result = shared.scanner.scan(snapshot.concurrentReader(), start, end);
+                long scanned = shared.scannedLines.addAndGet(end - start);
+                shared.progress.reportProgress((int) (100 * scanned / shared.totalLines));
+                return result;
+            }
+
+            int middle = (start + end) >>> 1;
+            ChunkTask<R> first = new ChunkTask<>(snapshot, start, middle, shared);
+            ChunkTask<R> second = new ChunkTask<>(snapshot, middle, end, shared);
+
+            second.fork();
+            R result = first.compute();
+            return shared.combiner.apply(result, second.join());
+        }
+    }
+}
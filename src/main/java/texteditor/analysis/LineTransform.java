@@ -0,0 +1,53 @@
+package texteditor.analysis;
+
+import texteditor.LineDelta;
+import texteditor.plugin.PluginProgress;
+import texteditor.storage.TextStorage;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Runs a function over a range of a snapshot's lines on all cores and collects the lines it
+ * changed into a LineDelta. Memory use depends on the number of changed lines only.
+ */
+public final class LineTransform
+{
+    public interface LineFunction
+    {
+        /**
+         * Returns the new content of the line, or the line itself to leave it unchanged.
+         */
+        String apply(int row, String line);
+    }
+
+    private LineTransform()
+    {
+    }
+
+    public static LineDelta apply(TextStorage snapshot, int startRow, int endRow, LineFunction function, PluginProgress progress)
+    {
+        return apply(snapshot, startRow, endRow, function, ForkJoinPool.commonPool(), progress);
+    }
+
+    public static LineDelta apply(TextStorage snapshot, int startRow, int endRow, LineFunction function, ForkJoinPool pool, PluginProgress progress)
+    {
+        LineChunks.Scanner<LineDelta.Builder> scanner = (reader, start, end) ->
+        {
+            LineDelta.Builder changes = new LineDelta.Builder();
+
+            for(int row = start; row < end; row++)
+            {
+                String line = reader.getLine(row);
+                String transformed = function.apply(row, line);
+
+                if(transformed != line && !transformed.equals(line))
+                    changes.add(row, List.of(line), List.of(transformed));
+            }
+
+            return changes;
+        };
+
+        return LineChunks.process(snapshot, startRow, endRow, pool, progress, scanner, LineDelta.Builder::addAll).build();
+    }
+}
@@ -0,0 +1,73 @@
+package texteditor.analysis;
+
+import texteditor.plugin.PluginProgress;
+import texteditor.storage.TextStorage;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Analyzes a snapshot of a document on all cores, a chunk of lines per task.
+ */
+public final class TextAnalysis
+{
+    private TextAnalysis()
+    {
+    }
+
+    public static AnalysisResult analyze(TextStorage snapshot, PluginProgress progress)
+    {
+        return analyze(snapshot, ForkJoinPool.commonPool(), progress);
+    }
+
+    public static AnalysisResult analyze(TextStorage snapshot, ForkJoinPool pool, PluginProgress progress)
+    {
+        return LineChunks.process(snapshot, 0, snapshot.getLineCount(), pool, progress, TextAnalysis::scan, (first, second) ->
+        {
+            first.add(second);
+            return first;
+        });
+    }
+
+    private static AnalysisResult scan(TextStorage reader, int start, int end)
+    {
+        AnalysisResult result = new AnalysisResult();
+        long[] types = result.types;
+        long words = 0;
+        long whitespace = 0;
+
+        for(int row = start; row < end; row++)
+        {
+            String line = reader.getLine(row);
+            int length = line.length();
+            boolean inWord = false;
+
+            for(int i = 0; i < length; i++)
+            {
+                char c = line.charAt(i);
+                types[Character.getType(c)]++;
+
+                if(Character.isWhitespace(c))
+                {
+                    whitespace++;
+                    inWord = false;
+                }
+                else if(!inWord)
+                {
+                    words++;
+                    inWord = true;
+                }
+            }
+
+            if(length > result.longestLineLength)
+            {
+                result.longestLineRow = row;
+                result.longestLineLength = length;
+            }
+        }
+
+        result.lines = end - start;
+        result.words = words;
+        result.whitespace = whitespace;
+        return result;
+    }
+}
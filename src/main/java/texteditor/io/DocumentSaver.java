@@ -0,0 +1,69 @@
+package texteditor.io;
+
+import texteditor.storage.TextStorage;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.function.IntConsumer;
+
+public final class DocumentSaver
+{
+    private DocumentSaver() {}
+
+    // Writes into a temporary file next to the target and renames it, so a failed save never truncates the target.
+    public static void save(TextStorage storage, Path target, IntConsumer progress) throws IOException
+    {
+        Path absoluteTarget = target.toAbsolutePath();
+        Path temp = absoluteTarget.resolveSibling("." + absoluteTarget.getFileName() + "." + System.nanoTime() + ".tmp");
+
+        try
+        {
+            try(FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE))
+            {
+                DocumentWriter writer = new DocumentWriter(channel, storage.getLineCount(), progress);
+                storage.writeTo(writer);
+                writer.flush();
+                channel.force(true);
+            }
+
+            copyPermissions(absoluteTarget, temp);
+            move(temp, absoluteTarget);
+        }
+        catch (IOException | RuntimeException e)
+        {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+    }
+
+    private static void copyPermissions(Path from, Path to) throws IOException
+    {
+        if(!Files.exists(from)) return;
+
+        try
+        {
+            Files.setPosixFilePermissions(to, Files.getPosixFilePermissions(from));
+        }
+        catch (UnsupportedOperationException e)
+        {
+            // Not a POSIX file system, the default permissions have to do.
+        }
+    }
+
+    private static void move(Path from, Path to) throws IOException
+    {
+        try
+        {
+            Files.move(from, to, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+        catch (AtomicMoveNotSupportedException e)
+        {
+            Files.move(from, to, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package texteditor.io;
+
+import texteditor.storage.LineSink;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.function.IntConsumer;
+
+public class DocumentWriter implements LineSink
+{
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    private final int totalLines;
+    private final IntConsumer progress;
+    private int writtenLines;
+    private int reportedPercent = -1;
+
+    public DocumentWriter(FileChannel channel, int totalLines, IntConsumer progress)
+    {
+        this.channel = channel;
+        this.totalLines = Math.max(1, totalLines);
+        this.progress = progress;
+    }
+
+    @Override
+    public void writeLine(String line) throws IOException
+    {
+        CharBuffer chars = CharBuffer.wrap(line);
+
+        // Each line is a complete input, so an unpaired surrogate at its end is replaced rather than held back.
+        encoder.reset();
+        while(encoder.encode(chars, buffer, true).isOverflow()) drain();
+        while(encoder.flush(buffer).isOverflow()) drain();
+
+        if(!buffer.hasRemaining()) drain();
+        buffer.put((byte) '\n');
+        advance(1);
+    }
+
+    @Override
+    public void transfer(ByteBuffer bytes, int lines) throws IOException
+    {
+        drain();
+        while(bytes.hasRemaining()) channel.write(bytes);
+        advance(lines);
+    }
+
+    public void flush() throws IOException
+    {
+        drain();
+    }
+
+    private void drain() throws IOException
+    {
+        buffer.flip();
+        while(buffer.hasRemaining()) channel.write(buffer);
+        buffer.clear();
+    }
+
+    private void advance(int lines)
+    {
+        writtenLines += lines;
+
+        int percent = (int) (100L * Math.min(writtenLines, totalLines) / totalLines);
+        if(percent == reportedPercent) return;
+
+        reportedPercent = percent;
+        progress.accept(percent);
+    }
+}
@@ -0,0 +1,131 @@
+package texteditor.io;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Append-only temporary file that holds undo history evicted from memory.
+ * Every write returns the position from which the same value can be read back.
+ */
+public class UndoSpillFile implements Closeable
+{
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    // writeUTF accepts at most 64 KB and a char takes up to 3 bytes.
+    private static final int CHUNK_LENGTH = 16 * 1024;
+
+    private final FileChannel channel;
+    private final DataOutputStream out;
+    private long size;
+
+    public UndoSpillFile() throws IOException
+    {
+        Path path = Files.createTempFile("texteditor-undo-", ".spill");
+        channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+        out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE));
+    }
+
+    public long size()
+    {
+        return size;
+    }
+
+    public long writeString(String text) throws IOException
+    {
+        long position = size;
+        writeChunks(text);
+        return finishRecord(position);
+    }
+
+    public long writeLines(List<String> lines) throws IOException
+    {
+        long position = size;
+        out.writeInt(lines.size());
+        for(String line : lines) writeChunks(line);
+        return finishRecord(position);
+    }
+
+    public String readString(long position) throws IOException
+    {
+        channel.position(position);
+
+        try
+        {
+            return readChunks(openInput());
+        }
+        finally
+        {
+            channel.position(size);
+        }
+    }
+
+    public List<String> readLines(long position) throws IOException
+    {
+        channel.position(position);
+
+        try
+        {
+            DataInputStream in = openInput();
+            int count = in.readInt();
+            List<String> lines = new ArrayList<>(count);
+
+            for(int i = 0; i < count; i++)
+                lines.add(readChunks(in));
+
+            return lines;
+        }
+        finally
+        {
+            channel.position(size);
+        }
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        out.close();
+    }
+
+    private void writeChunks(String text) throws IOException
+    {
+        out.writeInt(text.length());
+
+        for(int start = 0; start < text.length(); start += CHUNK_LENGTH)
+            out.writeUTF(text.substring(start, Math.min(text.length(), start + CHUNK_LENGTH)));
+    }
+
+    private String readChunks(DataInputStream in) throws IOException
+    {
+        int length = in.readInt();
+        StringBuilder sb = new StringBuilder(length);
+
+        while(sb.length() < length)
+            sb.append(in.readUTF());
+
+        return sb.toString();
+    }
+
+    private long finishRecord(long position) throws IOException
+    {
+        out.flush();
+        size = channel.position();
+        return position;
+    }
+
+    // The stream is deliberately never closed, as that would close the channel as well.
+    private DataInputStream openInput()
+    {
+        return new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), BUFFER_SIZE));
+    }
+}
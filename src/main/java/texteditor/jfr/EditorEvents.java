@@ -0,0 +1,40 @@
+package texteditor.jfr;
+
+/**
+ * The first use of a Flight Recorder event class sets up the recorder itself, which takes a few
+ * hundred milliseconds. Doing that on a worker thread at startup keeps it from delaying the first
+ * keystroke or repaint.
+ */
+public final class EditorEvents
+{
+    private static final Class<?>[] EVENT_CLASSES = {
+            TextInsertEvent.class, TextDeleteEvent.class, TextReplaceEvent.class, PaintEvent.class,
+            FileOpenEvent.class, FileSaveEvent.class, PluginEvent.class
+    };
+
+    private EditorEvents()
+    {
+    }
+
+    public static void initializeInBackground()
+    {
+        Thread thread = new Thread(EditorEvents::initialize, "JFR event setup");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static void initialize()
+    {
+        for(Class<?> eventClass : EVENT_CLASSES)
+        {
+            try
+            {
+                Class.forName(eventClass.getName(), true, eventClass.getClassLoader());
+            }
+            catch (ClassNotFoundException e)
+            {
+                e.printStackTrace();
+            }
+        }
+    }
+}
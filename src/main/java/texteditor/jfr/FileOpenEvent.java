@@ -0,0 +1,30 @@
+package texteditor.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Opening a file into the editor, from reading it to the model holding its text. Large files are
+ * mapped rather than read, so for them the duration does not include reading every byte.
+ */
+@Name("texteditor.FileOpen")
+@Label("File Open")
+@Category({"Text Editor", "File"})
+@Description("Opening a file into the editor")
+public class FileOpenEvent extends Event
+{
+    @Label("Path")
+    public String path;
+
+    @Label("Size")
+    @DataAmount(DataAmount.BYTES)
+    public long bytes;
+
+    @Label("Mapped")
+    @Description("Whether the file was mapped into memory instead of read")
+    public boolean mapped;
+}
@@ -0,0 +1,25 @@
+package texteditor.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Saving a document snapshot to a file. Runs on a worker thread, not on the event dispatch thread.
+ */
+@Name("texteditor.FileSave")
+@Label("File Save")
+@Category({"Text Editor", "File"})
+@Description("Saving the document to a file")
+public class FileSaveEvent extends Event
+{
+    @Label("Path")
+    public String path;
+
+    @Label("Size")
+    @DataAmount(DataAmount.BYTES)
+    public long bytes;
+}
@@ -0,0 +1,26 @@
+package texteditor.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * One call to TextEditor.paintComponent. The event's duration is the time spent painting.
+ */
+@Name("texteditor.Paint")
+@Label("Editor Paint")
+@Category({"Text Editor", "Rendering"})
+@Description("Painting the visible part of the editor")
+@StackTrace(false)
+public class PaintEvent extends Event
+{
+    @Label("First Row")
+    public int firstRow;
+
+    @Label("Visible Rows")
+    @Description("Number of document rows inside the painted area")
+    public int visibleRows;
+}
@@ -0,0 +1,29 @@
+package texteditor.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A run of a plugin. Background plugins produce two events: one for computing on a worker thread
+ * and one for applying the result on the event dispatch thread.
+ */
+@Name("texteditor.Plugin")
+@Label("Plugin")
+@Category({"Text Editor", "Plugin"})
+@Description("A plugin changing or inspecting the document")
+public class PluginEvent extends Event
+{
+    public static final String EXECUTE = "execute";
+    public static final String COMPUTE = "compute";
+    public static final String APPLY = "apply";
+
+    @Label("Plugin")
+    public String plugin;
+
+    @Label("Phase")
+    @Description("execute, or compute and apply for background plugins")
+    public String phase;
+}
@@ -0,0 +1,20 @@
+package texteditor.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Text deleted from the document, whether by a key, a cut, a redo or an undo. Emitted for every
+ * keystroke, so it carries no stack trace.
+ */
+@Name("texteditor.TextDelete")
+@Label("Text Delete")
+@Category({"Text Editor", "Model"})
+@Description("Text deleted from the document storage")
+@StackTrace(false)
+public class TextDeleteEvent extends TextEditEvent
+{
+}
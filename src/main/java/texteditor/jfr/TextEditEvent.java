@@ -0,0 +1,35 @@
+package texteditor.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+
+/**
+ * What inserts and deletes have in common: which rows of the document they touched and how many
+ * characters they moved, line breaks included.
+ */
+public abstract class TextEditEvent extends Event
+{
+    @Label("Start Row")
+    public int startRow;
+
+    @Label("Rows")
+    @Description("Number of rows the changed text spans")
+    public int rows;
+
+    @Label("Characters")
+    public long characters;
+
+    /**
+     * Fills in the payload and commits the event, unless it is disabled or below its threshold.
+     */
+    public void commitChange(int startRow, int endRow, long characters)
+    {
+        if(!shouldCommit()) return;
+
+        this.startRow = startRow;
+        this.rows = endRow - startRow + 1;
+        this.characters = characters;
+        commit();
+    }
+}
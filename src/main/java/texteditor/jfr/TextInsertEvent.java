@@ -0,0 +1,20 @@
+package texteditor.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Text inserted into the document, whether typed, pasted, redone or undone. Emitted for every
+ * keystroke, so it carries no stack trace.
+ */
+@Name("texteditor.TextInsert")
+@Label("Text Insert")
+@Category({"Text Editor", "Model"})
+@Description("Text inserted into the document storage")
+@StackTrace(false)
+public class TextInsertEvent extends TextEditEvent
+{
+}
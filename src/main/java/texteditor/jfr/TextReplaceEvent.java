@@ -0,0 +1,37 @@
+package texteditor.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Whole lines of the document replaced by other lines, as when a file is opened, all matches are
+ * replaced or a plugin's changes are applied, undone or redone. Emitted once for every changed run
+ * of lines; the characters are the ones that took the place of the removed ones.
+ */
+@Name("texteditor.TextReplace")
+@Label("Text Replace")
+@Category({"Text Editor", "Model"})
+@Description("Lines of the document storage replaced by other lines")
+@StackTrace(false)
+public class TextReplaceEvent extends TextEditEvent
+{
+    public static final long UNKNOWN_LENGTH = -1;
+
+    @Label("Removed Characters")
+    @Description("Number of replaced characters, or -1 when the whole document was replaced")
+    public long removedCharacters;
+
+    /**
+     * Like commitChange, but also records how many characters were removed.
+     */
+    public void commitReplace(int startRow, int endRow, long removedCharacters, long characters)
+    {
+        if(!shouldCommit()) return;
+
+        this.removedCharacters = removedCharacters;
+        commitChange(startRow, endRow, characters);
+    }
+}
@@ -0,0 +1,96 @@
+package texteditor.metrics;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Latency histograms and observer fan-out counters of the editor, published as MBeans in the
+ * "texteditor" JMX domain. Metrics are only collected when the texteditor.metrics system property
+ * is true. The property is read once, so with metrics disabled the JIT compiles every measurement
+ * away and all names share a single histogram and counter that are never written to.
+ */
+public final class EditorMetrics
+{
+    public static final String PROPERTY = "texteditor.metrics";
+    public static final boolean ENABLED = Boolean.getBoolean(PROPERTY);
+
+    private static final String DOMAIN = "texteditor";
+    private static final LatencyHistogram DISABLED_LATENCY = new LatencyHistogram();
+    private static final FanOutCounter DISABLED_FAN_OUT = new FanOutCounter();
+
+    private static final Map<String, LatencyHistogram> latencies = new LinkedHashMap<>();
+    private static final Map<String, FanOutCounter> fanOuts = new LinkedHashMap<>();
+
+    private EditorMetrics()
+    {
+    }
+
+    /**
+     * Returns the latency histogram with the given name, creating and publishing it when first asked for.
+     */
+    public static synchronized LatencyHistogram latency(String name)
+    {
+        if(!ENABLED) return DISABLED_LATENCY;
+
+        LatencyHistogram histogram = latencies.get(name);
+        if(histogram == null)
+        {
+            histogram = new LatencyHistogram();
+            latencies.put(name, histogram);
+            register("Latency", name, histogram);
+        }
+
+        return histogram;
+    }
+
+    /**
+     * Returns the fan-out counter with the given name, creating and publishing it when first asked for.
+     */
+    public static synchronized FanOutCounter fanOut(String name)
+    {
+        if(!ENABLED) return DISABLED_FAN_OUT;
+
+        FanOutCounter counter = fanOuts.get(name);
+        if(counter == null)
+        {
+            counter = new FanOutCounter();
+            fanOuts.put(name, counter);
+            register("FanOut", name, counter);
+        }
+
+        return counter;
+    }
+
+    public static synchronized Map<String, LatencyHistogram> getLatencies()
+    {
+        return new LinkedHashMap<>(latencies);
+    }
+
+    public static synchronized Map<String, FanOutCounter> getFanOuts()
+    {
+        return new LinkedHashMap<>(fanOuts);
+    }
+
+    public static synchronized void reset()
+    {
+        latencies.values().forEach(LatencyHistogram::reset);
+        fanOuts.values().forEach(FanOutCounter::reset);
+    }
+
+    private static void register(String type, String name, Object bean)
+    {
+        try
+        {
+            // Plugin names may contain anything, but object name values may not.
+            ObjectName objectName = new ObjectName(DOMAIN + ":type=" + type + ",name=" + name.replaceAll("[^\\w.-]", "_"));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(bean, objectName);
+        }
+        catch (JMException e)
+        {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package texteditor.metrics;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts how many observers hear about each notification of one kind.
+ */
+public final class FanOutCounter implements FanOutCounterMBean
+{
+    private final LongAdder notifications = new LongAdder();
+    private final LongAdder observerCalls = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    FanOutCounter()
+    {
+    }
+
+    /**
+     * Records one notification sent to the given number of observers. Does nothing when metrics are disabled.
+     */
+    public void record(int observers)
+    {
+        if(!EditorMetrics.ENABLED) return;
+
+        notifications.increment();
+        observerCalls.add(observers);
+        max.accumulate(observers);
+    }
+
+    @Override
+    public long getNotifications()
+    {
+        return notifications.sum();
+    }
+
+    @Override
+    public long getObserverCalls()
+    {
+        return observerCalls.sum();
+    }
+
+    @Override
+    public double getMeanFanOut()
+    {
+        long sent = notifications.sum();
+        return sent == 0 ? 0 : (double) observerCalls.sum() / sent;
+    }
+
+    @Override
+    public long getMaxFanOut()
+    {
+        return max.get();
+    }
+
+    @Override
+    public void reset()
+    {
+        notifications.reset();
+        observerCalls.reset();
+        max.reset();
+    }
+}
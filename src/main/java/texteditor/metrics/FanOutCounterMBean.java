@@ -0,0 +1,17 @@
+package texteditor.metrics;
+
+/**
+ * What JMX clients see of a fan-out counter.
+ */
+public interface FanOutCounterMBean
+{
+    long getNotifications();
+
+    long getObserverCalls();
+
+    double getMeanFanOut();
+
+    long getMaxFanOut();
+
+    void reset();
+}
@@ -0,0 +1,177 @@
+package texteditor.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Durations in nanoseconds, counted in buckets the way HdrHistogram does it: small values get a
+ * bucket each and every larger power of two is split into 64 buckets, so any value is known to
+ * within 1/64 of itself while the whole histogram stays a fixed 18 KB. Recording is a handful of
+ * uncontended atomic increments and may happen on any thread.
+ */
+public final class LatencyHistogram implements LatencyHistogramMBean
+{
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int HALF_SUB_BUCKET_COUNT = SUB_BUCKET_COUNT / 2;
+
+    // Longer durations, about 18 minutes and up, are all counted as the longest one.
+    private static final int MAX_VALUE_BITS = 40;
+    private static final long MAX_VALUE = (1L << MAX_VALUE_BITS) - 1;
+    private static final int BUCKET_COUNT = indexOf(MAX_VALUE) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder total = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    LatencyHistogram()
+    {
+    }
+
+    //==================================================================
+    //                          Recording
+    //==================================================================
+
+    /**
+     * Returns the start of a measurement to pass to stop. Does nothing when metrics are disabled.
+     */
+    public long start()
+    {
+        return EditorMetrics.ENABLED ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Records the time since start. Does nothing when metrics are disabled.
+     */
+    public void stop(long start)
+    {
+        if(EditorMetrics.ENABLED) record(System.nanoTime() - start);
+    }
+
+    public void record(long nanos)
+    {
+        long value = Math.max(0, Math.min(nanos, MAX_VALUE));
+
+        counts.incrementAndGet(indexOf(value));
+        count.increment();
+        total.add(value);
+        max.accumulate(value);
+    }
+
+    /**
+     * Forgets everything recorded so far. Values recorded at the same time may be partly kept.
+     */
+    @Override
+    public void reset()
+    {
+        for(int i = 0; i < BUCKET_COUNT; i++)
+        {
+            counts.set(i, 0);
+        }
+
+        count.reset();
+        total.reset();
+        max.reset();
+    }
+
+    //==================================================================
+    //                          Reading
+    //==================================================================
+
+    /**
+     * Returns the duration in nanoseconds that the given percentage of the recorded durations did not
+     * exceed, rounded up to the end of its bucket, or 0 if nothing was recorded.
+     */
+    public long getValueAtPercentile(double percentile)
+    {
+        long[] snapshot = new long[BUCKET_COUNT];
+        long recorded = 0;
+
+        for(int i = 0; i < BUCKET_COUNT; i++)
+        {
+            snapshot[i] = counts.get(i);
+            recorded += snapshot[i];
+        }
+
+        if(recorded == 0) return 0;
+
+        long wanted = Math.max(1, (long) Math.ceil(Math.min(percentile, 100) / 100 * recorded));
+        long seen = 0;
+
+        for(int i = 0; i < BUCKET_COUNT; i++)
+        {
+            seen += snapshot[i];
+            if(seen >= wanted) return Math.min(highestValueAt(i), max.get());
+        }
+
+        return max.get();
+    }
+
+    @Override
+    public long getCount()
+    {
+        return count.sum();
+    }
+
+    @Override
+    public double getMeanMicros()
+    {
+        long recorded = count.sum();
+        return recorded == 0 ? 0 : total.sum() / 1e3 / recorded;
+    }
+
+    @Override
+    public double getMedianMicros()
+    {
+        return getValueAtPercentile(50) / 1e3;
+    }
+
+    @Override
+    public double getP90Micros()
+    {
+        return getValueAtPercentile(90) / 1e3;
+    }
+
+    @Override
+    public double getP99Micros()
+    {
+        return getValueAtPercentile(99) / 1e3;
+    }
+
+    @Override
+    public double getP999Micros()
+    {
+        return getValueAtPercentile(99.9) / 1e3;
+    }
+
+    @Override
+    public double getMaxMicros()
+    {
+        return max.get() / 1e3;
+    }
+
+    //==================================================================
+    //                          Buckets
+    //==================================================================
+
+    private static int indexOf(long value)
+    {
+        if(value < SUB_BUCKET_COUNT) return (int) value;
+
+        // Keeps the top SUB_BUCKET_BITS bits of the value, whose highest bit is always set.
+        int shift = 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift);
+        return SUB_BUCKET_COUNT + (shift - 1) * HALF_SUB_BUCKET_COUNT + subBucket - HALF_SUB_BUCKET_COUNT;
+    }
+
+    private static long highestValueAt(int index)
+    {
+        if(index < SUB_BUCKET_COUNT) return index;
+
+        int shift = (index - SUB_BUCKET_COUNT) / HALF_SUB_BUCKET_COUNT + 1;
+        long subBucket = (index - SUB_BUCKET_COUNT) % HALF_SUB_BUCKET_COUNT + HALF_SUB_BUCKET_COUNT;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
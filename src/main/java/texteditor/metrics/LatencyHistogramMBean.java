@@ -0,0 +1,23 @@
+package texteditor.metrics;
+
+/**
+ * What JMX clients see of a latency histogram. Durations are in microseconds.
+ */
+public interface LatencyHistogramMBean
+{
+    long getCount();
+
+    double getMeanMicros();
+
+    double getMedianMicros();
+
+    double getP90Micros();
+
+    double getP99Micros();
+
+    double getP999Micros();
+
+    double getMaxMicros();
+
+    void reset();
+}
@@ -0,0 +1,104 @@
+package texteditor.metrics;
+
+import javax.swing.*;
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A glass pane that shows the slowest operations and the observer fan-out in the corner of a
+ * window, refreshed twice a second while it is visible. It has no listeners, so it lets all mouse
+ * events through to the window below.
+ */
+public class MetricsOverlay extends JComponent
+{
+    private static final int REFRESH_MILLIS = 500;
+    private static final int MAX_ROWS = 12;
+    private static final int MARGIN = 12;
+    private static final int PADDING = 8;
+
+    private static final Color BACKGROUND_COLOR = new Color(0, 0, 0, 170);
+    private static final Color TEXT_COLOR = Color.white;
+    private static final Color HEADER_COLOR = new Color(255, 200, 80);
+
+    private final Timer refreshTimer = new Timer(REFRESH_MILLIS, e -> repaint());
+
+    public MetricsOverlay()
+    {
+        setOpaque(false);
+        setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+    }
+
+    @Override
+    public void setVisible(boolean visible)
+    {
+        super.setVisible(visible);
+
+        if(visible) refreshTimer.start();
+        else refreshTimer.stop();
+    }
+
+    @Override
+    protected void paintComponent(Graphics g)
+    {
+        List<String> rows = createRows();
+
+        Graphics2D g2d = (Graphics2D) g.create();
+        g2d.setFont(getFont());
+        FontMetrics metrics = g2d.getFontMetrics();
+
+        int width = 0;
+        for(String row : rows)
+        {
+            width = Math.max(width, metrics.stringWidth(row));
+        }
+
+        int lineHeight = metrics.getHeight();
+        int boxWidth = width + 2 * PADDING;
+        int boxHeight = rows.size() * lineHeight + 2 * PADDING;
+        int x = getWidth() - boxWidth - MARGIN;
+        int y = MARGIN;
+
+        g2d.setColor(BACKGROUND_COLOR);
+        g2d.fillRoundRect(x, y, boxWidth, boxHeight, 8, 8);
+
+        for(int i = 0; i < rows.size(); i++)
+        {
+            String row = rows.get(i);
+            g2d.setColor(row.startsWith(" ") ? TEXT_COLOR : HEADER_COLOR);
+            g2d.drawString(row, x + PADDING, y + PADDING + i * lineHeight + metrics.getAscent());
+        }
+
+        g2d.dispose();
+    }
+
+    // The operations with the longest 99th percentile come first.
+    private List<String> createRows()
+    {
+        List<String> rows = new ArrayList<>();
+        rows.add(String.format("%-28s %8s %9s %9s %9s", "latency (us)", "count", "p50", "p99", "max"));
+
+        List<Map.Entry<String, LatencyHistogram>> latencies = new ArrayList<>(EditorMetrics.getLatencies().entrySet());
+        latencies.removeIf(entry -> entry.getValue().getCount() == 0);
+        latencies.sort((a, b) -> Double.compare(b.getValue().getP99Micros(), a.getValue().getP99Micros()));
+
+        for(var entry : latencies.subList(0, Math.min(MAX_ROWS, latencies.size())))
+        {
+            LatencyHistogram histogram = entry.getValue();
+            rows.add(String.format(" %-27s %8d %9.1f %9.1f %9.1f", entry.getKey(), histogram.getCount(),
+                    histogram.getMedianMicros(), histogram.getP99Micros(), histogram.getMaxMicros()));
+        }
+
+        rows.add(String.format("%-28s %8s %9s %9s", "observers", "sent", "mean", "max"));
+
+        for(var entry : EditorMetrics.getFanOuts().entrySet())
+        {
+            FanOutCounter counter = entry.getValue();
+            rows.add(String.format(" %-27s %8d %9.1f %9d", entry.getKey(), counter.getNotifications(),
+                    counter.getMeanFanOut(), counter.getMaxFanOut()));
+        }
+
+        return rows;
+    }
+}
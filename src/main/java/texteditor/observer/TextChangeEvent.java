@@ -0,0 +1,116 @@
+package texteditor.observer;
+
+import texteditor.location.Location;
+
+public final class TextChangeEvent
+{
+    public static final long UNKNOWN_LENGTH = -1;
+
+    private final Location start;
+    private final Location oldEnd;
+    private final Location newEnd;
+    private final long oldLength;
+    private final long newLength;
+
+    public TextChangeEvent(Location start, Location oldEnd, Location newEnd, long oldLength, long newLength)
+    {
+        this.start = start.clone();
+        this.oldEnd = oldEnd.clone();
+        this.newEnd = newEnd.clone();
+        this.oldLength = oldLength;
+        this.newLength = newLength;
+    }
+
+    public Location getStart()
+    {
+        return start;
+    }
+
+    /**
+     * End of the replaced text, in document coordinates from before the change.
+     */
+    public Location getOldEnd()
+    {
+        return oldEnd;
+    }
+
+    /**
+     * End of the inserted text, in document coordinates from after the change.
+     */
+    public Location getNewEnd()
+    {
+        return newEnd;
+    }
+
+    /**
+     * Number of replaced characters, or UNKNOWN_LENGTH when the whole document was swapped.
+     * For merged events this is the total over all merged edits.
+     */
+    public long getOldLength()
+    {
+        return oldLength;
+    }
+
+    public long getNewLength()
+    {
+        return newLength;
+    }
+
+    public int getLinesRemoved()
+    {
+        return oldEnd.row - start.row;
+    }
+
+    public int getLinesInserted()
+    {
+        return newEnd.row - start.row;
+    }
+
+    public boolean changesLineCount()
+    {
+        return getLinesInserted() != getLinesRemoved();
+    }
+
+    /**
+     * Combines this change with one that happened right after it into a single change covering both.
+     */
+    public TextChangeEvent merge(TextChangeEvent next)
+    {
+        Location mergedStart = compare(start, next.start) <= 0 ? start : next.start;
+
+        // Both regions are expressed in the intermediate document: this change's result and the next change's input.
+        Location mergedOldEnd;
+        Location mergedNewEnd;
+
+        if(compare(newEnd, next.oldEnd) >= 0)
+        {
+            mergedOldEnd = oldEnd;
+            mergedNewEnd = shift(newEnd, next.oldEnd, next.newEnd);
+        }
+        else
+        {
+            mergedOldEnd = shift(next.oldEnd, newEnd, oldEnd);
+            mergedNewEnd = next.newEnd;
+        }
+
+        long mergedOldLength = oldLength < 0 || next.oldLength < 0 ? UNKNOWN_LENGTH : oldLength + next.oldLength;
+        long mergedNewLength = newLength < 0 || next.newLength < 0 ? UNKNOWN_LENGTH : newLength + next.newLength;
+
+        return new TextChangeEvent(mergedStart, mergedOldEnd, mergedNewEnd, mergedOldLength, mergedNewLength);
+    }
+
+    // Moves a location that lies at or after 'from' by the same offset that takes 'from' to 'to'.
+    private static Location shift(Location location, Location from, Location to)
+    {
+        if(location.row == from.row)
+            return new Location(to.row, to.column + location.column - from.column);
+
+        return new Location(location.row - from.row + to.row, location.column);
+    }
+
+    private static int compare(Location a, Location b)
+    {
+        if(a.row != b.row) return Integer.compare(a.row, b.row);
+        return Integer.compare(a.column, b.column);
+    }
+}
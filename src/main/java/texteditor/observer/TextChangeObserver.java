@@ -0,0 +1,6 @@
+package texteditor.observer;
+
+public interface TextChangeObserver
+{
+    void onTextChanged(TextChangeEvent event);
+}
@@ -1,6 +1,12 @@
 package texteditor.observer;
 
-public interface TextObserver
+public interface TextObserver extends TextChangeObserver
 {
     void updateText();
+
+    @Override
+    default void onTextChanged(TextChangeEvent event)
+    {
+        updateText();
+    }
 }
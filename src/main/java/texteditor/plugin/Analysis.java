@@ -0,0 +1,39 @@
+package texteditor.plugin;
+
+import texteditor.ClipboardStack;
+import texteditor.TextEditorModel;
+import texteditor.analysis.AnalysisResult;
+import texteditor.analysis.TextAnalysis;
+import texteditor.storage.TextStorage;
+
+@PluginInfo(name = "Analysis", description = "Counts characters by class and finds the longest line, using all processor cores.")
+public class Analysis implements AsyncPlugin<AnalysisResult>
+{
+    @Override
+    public AnalysisResult compute(TextStorage snapshot, PluginProgress progress)
+    {
+        return TextAnalysis.analyze(snapshot, progress);
+    }
+
+    // The analysis only reports on the document and does not change it.
+    @Override
+    public void apply(TextEditorModel model, AnalysisResult result, ClipboardStack clipboardStack)
+    {
+    }
+
+    @Override
+    public String report(TextEditorModel model, AnalysisResult result)
+    {
+        return "Lines: " + result.getLineCount() + "\n" +
+                "Words: " + result.getWordCount() + "\n" +
+                "Characters: " + result.getCharacterCount() + "\n\n" +
+                "Letters: " + result.getLetterCount() + " (" +
+                        result.getTypeCount(Character.UPPERCASE_LETTER) + " uppercase, " +
+                        result.getTypeCount(Character.LOWERCASE_LETTER) + " lowercase)\n" +
+                "Digits: " + result.getDigitCount() + "\n" +
+                "Whitespace: " + result.getWhitespaceCount() + "\n" +
+                "Punctuation: " + result.getPunctuationCount() + "\n" +
+                "Symbols: " + result.getSymbolCount() + "\n\n" +
+                "Longest line: " + (result.getLongestLineRow() + 1) + " (" + result.getLongestLineLength() + " characters)";
+    }
+}
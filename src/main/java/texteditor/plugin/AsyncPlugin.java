@@ -0,0 +1,46 @@
+package texteditor.plugin;
+
+import texteditor.ClipboardStack;
+import texteditor.TextEditorModel;
+import texteditor.UndoManager;
+import texteditor.location.LocationRange;
+import texteditor.storage.TextStorage;
+
+/**
+ * A plugin whose work is split in two: the computation runs on a worker thread against
+ * a snapshot of the document, and the result is then applied to the model on the EDT.
+ */
+public interface AsyncPlugin<R> extends Plugin
+{
+    R compute(TextStorage snapshot, PluginProgress progress);
+
+    /**
+     * Like compute, but also told what was selected when the plugin was started. Plugins that
+     * can work on just the selection override this; the range is empty when nothing was selected.
+     */
+    default R compute(TextStorage snapshot, LocationRange selection, PluginProgress progress)
+    {
+        return compute(snapshot, progress);
+    }
+
+    /**
+     * Runs inside a single model edit, so everything it changes is undone in one step.
+     */
+    void apply(TextEditorModel model, R result, ClipboardStack clipboardStack);
+
+    /**
+     * Returns a message for the user about the applied result, or null. Like Plugin.report, it is asked
+     * for inside the edit and shown once the edit is complete.
+     */
+    default String report(TextEditorModel model, R result)
+    {
+        return null;
+    }
+
+    @Override
+    default void execute(TextEditorModel model, UndoManager undoManager, ClipboardStack clipboardStack)
+    {
+        R result = compute(model.snapshot(), model.getSelectionRange(), PluginProgress.NONE);
+        model.edit(m -> apply(m, result, clipboardStack));
+    }
+}
@@ -6,7 +6,26 @@ import texteditor.UndoManager;
 
 public interface Plugin
 {
-    String getName();
-    String getDescription();
+    default String getName()
+    {
+        PluginInfo info = getClass().getAnnotation(PluginInfo.class);
+        return info != null ? info.name() : getClass().getSimpleName();
+    }
+
+    default String getDescription()
+    {
+        PluginInfo info = getClass().getAnnotation(PluginInfo.class);
+        return info != null ? info.description() : "";
+    }
+
     void execute(TextEditorModel model, UndoManager undoManager, ClipboardStack clipboardStack);
+
+    /**
+     * Returns a message for the user about the run that execute just finished, or null. It is asked for inside
+     * the same edit but shown after it, since a dialog opened from execute would hold the edit open.
+     */
+    default String report(TextEditorModel model)
+    {
+        return null;
+    }
 }
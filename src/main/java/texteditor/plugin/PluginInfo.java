@@ -0,0 +1,19 @@
+package texteditor.plugin;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Lets the editor build a plugin's menu entry without instantiating the plugin. Annotated
+ * plugins are only constructed the first time they are run, and the default getName and
+ * getDescription of Plugin return these values.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface PluginInfo
+{
+    String name();
+    String description();
+}
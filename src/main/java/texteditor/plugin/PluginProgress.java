@@ -0,0 +1,25 @@
+package texteditor.plugin;
+
+public interface PluginProgress
+{
+    PluginProgress NONE = new PluginProgress()
+    {
+        @Override
+        public void reportProgress(int percent)
+        {
+        }
+
+        @Override
+        public boolean isCancelled()
+        {
+            return false;
+        }
+    };
+
+    void reportProgress(int percent);
+
+    /**
+     * Long computations should poll this and throw a CancellationException once it returns true.
+     */
+    boolean isCancelled();
+}
@@ -1,44 +1,58 @@
 package texteditor.plugin;
 
 import texteditor.ClipboardStack;
+import texteditor.LineDelta;
 import texteditor.TextEditorModel;
-import texteditor.UndoManager;
+import texteditor.analysis.LineTransform;
+import texteditor.location.Location;
+import texteditor.location.LocationRange;
+import texteditor.storage.TextStorage;
 
-import java.util.ArrayList;
-import java.util.List;
-
-public class Uppercase implements Plugin
+@PluginInfo(name = "Uppercase", description = "Converts the first letter of every word to uppercase, only in the selection if there is one.")
+public class Uppercase implements AsyncPlugin<LineDelta>
 {
     @Override
-    public String getName()
+    public LineDelta compute(TextStorage snapshot, PluginProgress progress)
     {
-        return "Uppercase";
+        return LineTransform.apply(snapshot, 0, snapshot.getLineCount(),
+                (row, line) -> convertFirstLetterInWordsToUpper(line, 0, line.length(), true), progress);
     }
 
     @Override
-    public String getDescription()
+    public LineDelta compute(TextStorage snapshot, LocationRange selection, PluginProgress progress)
     {
-        return "Converts the first letter of every word to uppercase.";
+        if(selection.isEmpty()) return compute(snapshot, progress);
+
+        Location start = selection.getStart();
+        Location end = selection.getEnd();
+
+        return LineTransform.apply(snapshot, start.row, end.row + 1, (row, line) ->
+        {
+            int from = row == start.row ? start.column : 0;
+            int to = row == end.row ? end.column : line.length();
+
+            // A selection starting inside a word must not capitalize the rest of it.
+            boolean atWordStart = row != start.row || from == 0 || Character.isWhitespace(line.charAt(from - 1));
+            return convertFirstLetterInWordsToUpper(line, from, to, atWordStart);
+        }, progress);
     }
 
     @Override
-    public void execute(TextEditorModel model, UndoManager undoManager, ClipboardStack clipboardStack)
+    public void apply(TextEditorModel model, LineDelta delta, ClipboardStack clipboardStack)
     {
-        if(model.isEmpty()) return;
-        List<String> modifiedLines = new ArrayList<>();
-        model.getLines().forEach(line -> modifiedLines.add(convertFirstLetterInWordsToUpper(line)));
-        model.modifyLines(modifiedLines);
+        model.applyDelta(delta);
     }
 
-    private String convertFirstLetterInWordsToUpper(String line)
+    // Returns the line itself when nothing in [from, to) needs converting, so unchanged lines are never copied.
+    private static String convertFirstLetterInWordsToUpper(String line, int from, int to, boolean atWordStart)
     {
-        char[] chars = line.toCharArray();
+        char[] chars = null;
 
-        boolean shouldConvertNextLetter = true;
+        boolean shouldConvertNextLetter = atWordStart;
 
-        for(int i = 0; i < chars.length; i++)
+        for(int i = from; i < to; i++)
         {
-            char c = chars[i];
+            char c = line.charAt(i);
 
             if (Character.isWhitespace(c))
             {
@@ -49,10 +63,15 @@ public class Uppercase implements Plugin
             if (shouldConvertNextLetter && Character.isLetter(c))
             {
                 shouldConvertNextLetter = false;
-                chars[i] = Character.toUpperCase(c);
+
+                char upper = Character.toUpperCase(c);
+                if(upper == c) continue;
+
+                if(chars == null) chars = line.toCharArray();
+                chars[i] = upper;
             }
         }
 
-        return new String(chars);
+        return chars == null ? line : new String(chars);
     }
 }
@@ -0,0 +1,104 @@
+package texteditor.search;
+
+import texteditor.LineDelta;
+import texteditor.location.Location;
+import texteditor.storage.TextStorage;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Turns a sequence of replaced ranges into a LineDelta. Ranges have to arrive in document
+ * order without overlapping; matches that share a line end up in the same hunk.
+ */
+final class DeltaAssembler
+{
+    private final TextStorage storage;
+    private final LineDelta.Builder delta = new LineDelta.Builder();
+    private final StringBuilder text = new StringBuilder();
+    private int count;
+
+    private int hunkStart = -1;
+    private int hunkEnd;
+    private int tailColumn;
+
+    // Every line is needed several times in a row: for the text before a match, after it and as the old line.
+    private int cachedRow = -1;
+    private String cachedLine;
+
+    DeltaAssembler(TextStorage storage)
+    {
+        this.storage = storage;
+    }
+
+    void replace(Location start, Location end, String replacement)
+    {
+        if(hunkStart >= 0 && start.row > hunkEnd) flush();
+
+        if(hunkStart < 0)
+        {
+            hunkStart = start.row;
+            hunkEnd = start.row;
+            tailColumn = 0;
+            text.setLength(0);
+        }
+
+        text.append(line(hunkEnd), tailColumn, start.column);
+        text.append(replacement);
+
+        hunkEnd = end.row;
+        tailColumn = end.column;
+        count++;
+    }
+
+    Replacements finish()
+    {
+        if(hunkStart >= 0) flush();
+        return new Replacements(delta.build(), count);
+    }
+
+    private void flush()
+    {
+        String lastLine = line(hunkEnd);
+        text.append(lastLine, tailColumn, lastLine.length());
+
+        if(hunkStart == hunkEnd && text.indexOf("\n") < 0)
+        {
+            String newLine = text.toString();
+            if(!newLine.equals(lastLine)) delta.add(hunkStart, List.of(lastLine), List.of(newLine));
+            hunkStart = -1;
+            return;
+        }
+
+        List<String> oldLines = new ArrayList<>(hunkEnd - hunkStart + 1);
+        for(int row = hunkStart; row <= hunkEnd; row++)
+        {
+            oldLines.add(line(row));
+        }
+
+        List<String> newLines = new ArrayList<>(oldLines.size());
+        int lineStart = 0;
+        for(int i = 0; i < text.length(); i++)
+        {
+            if(text.charAt(i) != '\n') continue;
+
+            newLines.add(text.substring(lineStart, i));
+            lineStart = i + 1;
+        }
+        newLines.add(text.substring(lineStart));
+
+        if(!newLines.equals(oldLines)) delta.add(hunkStart, oldLines, newLines);
+        hunkStart = -1;
+    }
+
+    String line(int row)
+    {
+        if(row != cachedRow)
+        {
+            cachedRow = row;
+            cachedLine = storage.getLine(row);
+        }
+
+        return cachedLine;
+    }
+}
@@ -0,0 +1,124 @@
+package texteditor.search;
+
+import texteditor.location.Location;
+import texteditor.storage.TextStorage;
+
+import java.util.Arrays;
+
+/**
+ * A run of consecutive lines of a storage joined into one character sequence, so that regular
+ * expressions can match across line breaks without the whole document being copied.
+ * Every line but the last line of the document is followed by a line feed. A window holds at
+ * most MAX_CHARS characters, unless its first line alone is longer.
+ */
+final class LineWindow implements CharSequence
+{
+    static final int MAX_CHARS = 1 << 26;
+
+    private final int firstRow;
+    private final String text;
+    private final int[] starts;
+    private final boolean reachesEnd;
+
+    private int lastIndex;
+
+    LineWindow(TextStorage storage, int firstRow, int maxLines)
+    {
+        int lineCount = storage.getLineCount();
+        int count = (int) Math.min(maxLines, (long) lineCount - firstRow);
+        int[] starts = new int[count];
+
+        StringBuilder sb = new StringBuilder();
+        for(int i = 0; i < count; i++)
+        {
+            String line = storage.getLine(firstRow + i);
+            if(i > 0 && (long) sb.length() + line.length() + 1 > MAX_CHARS)
+            {
+                count = i;
+                break;
+            }
+
+            starts[i] = sb.length();
+            sb.append(line);
+            if(firstRow + i + 1 < lineCount) sb.append('\n');
+        }
+
+        this.firstRow = firstRow;
+        this.starts = count < starts.length ? Arrays.copyOf(starts, count) : starts;
+        this.reachesEnd = firstRow + count == lineCount;
+        this.text = sb.toString();
+    }
+
+    int getFirstRow()
+    {
+        return firstRow;
+    }
+
+    int getRowCount()
+    {
+        return starts.length;
+    }
+
+    boolean reachesEnd()
+    {
+        return reachesEnd;
+    }
+
+    int offsetOf(Location location)
+    {
+        return starts[location.row - firstRow] + location.column;
+    }
+
+    Location locationOf(int offset)
+    {
+        // Past the line feed after the last line is the start of the row below the window.
+        if(offset == text.length() && !reachesEnd) return new Location(firstRow + starts.length, 0);
+
+        int index = indexOf(offset);
+        return new Location(firstRow + index, offset - starts[index]);
+    }
+
+    @Override
+    public int length()
+    {
+        return text.length();
+    }
+
+    @Override
+    public char charAt(int offset)
+    {
+        return text.charAt(offset);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end)
+    {
+        return text.subSequence(start, end);
+    }
+
+    @Override
+    public String toString()
+    {
+        return text;
+    }
+
+    // Matches are usually looked up in order, so the last line used is checked first.
+    private int indexOf(int offset)
+    {
+        int index = lastIndex;
+        if(offset >= starts[index] && (index + 1 == starts.length || offset < starts[index + 1])) return index;
+        if(index + 1 < starts.length && offset >= starts[index + 1] && (index + 2 == starts.length || offset < starts[index + 2]))
+            return lastIndex = index + 1;
+
+        int low = 0;
+        int high = starts.length - 1;
+        while(low < high)
+        {
+            int middle = (low + high + 1) >>> 1;
+            if(starts[middle] <= offset) low = middle;
+            else high = middle - 1;
+        }
+
+        return lastIndex = low;
+    }
+}
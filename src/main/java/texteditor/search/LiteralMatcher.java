@@ -0,0 +1,116 @@
+package texteditor.search;
+
+import texteditor.location.Location;
+import texteditor.location.LocationRange;
+import texteditor.storage.TextStorage;
+
+import java.util.Arrays;
+
+/**
+ * Finds a literal pattern line by line. Patterns within one line are found with
+ * Boyer-Moore-Horspool; a pattern with line breaks has to end one line, fill any lines
+ * in between completely and start the last one.
+ */
+final class LiteralMatcher
+{
+    private final boolean matchCase;
+    private final String[] parts;
+    private final char[] pattern;
+    private final int[] shift = new int[256];
+
+    LiteralMatcher(String text, boolean matchCase)
+    {
+        this.matchCase = matchCase;
+        this.parts = text.split("\n", -1);
+
+        pattern = parts[0].toCharArray();
+        for(int i = 0; i < pattern.length; i++)
+        {
+            pattern[i] = fold(pattern[i]);
+        }
+
+        // Characters are hashed to their low byte; colliding ones keep the smallest, still safe, shift.
+        int length = pattern.length;
+        Arrays.fill(shift, Math.max(1, length));
+        for(int i = 0; i < length - 1; i++)
+        {
+            shift[pattern[i] & 0xFF] = length - 1 - i;
+        }
+    }
+
+    /**
+     * The pattern split at its line breaks; a match covers one line per part.
+     */
+    String[] getParts()
+    {
+        return parts;
+    }
+
+    /**
+     * Returns the first match that starts in the given row at or after the column, or null.
+     * The line is passed in because callers usually have it already.
+     */
+    LocationRange findInLine(TextStorage storage, int row, String line, int fromColumn)
+    {
+        if(parts.length == 1)
+        {
+            int column = indexOf(line, fromColumn);
+            return column < 0 ? null : new LocationRange(new Location(row, column), new Location(row, column + pattern.length));
+        }
+
+        int column = line.length() - parts[0].length();
+        if(column < fromColumn || !line.regionMatches(!matchCase, column, parts[0], 0, parts[0].length())) return null;
+
+        int lastRow = row + parts.length - 1;
+        if(lastRow >= storage.getLineCount()) return null;
+
+        for(int i = 1; i < parts.length - 1; i++)
+        {
+            String middle = storage.getLine(row + i);
+            if(middle.length() != parts[i].length() || !middle.regionMatches(!matchCase, 0, parts[i], 0, parts[i].length())) return null;
+        }
+
+        String last = parts[parts.length - 1];
+        if(!storage.getLine(lastRow).regionMatches(!matchCase, 0, last, 0, last.length())) return null;
+
+        return new LocationRange(new Location(row, column), new Location(lastRow, last.length()));
+    }
+
+    private int indexOf(String line, int from)
+    {
+        int length = pattern.length;
+        int last = length - 1;
+
+        if(length == 0) return from <= line.length() ? from : -1;
+
+        for(int i = from + last; i < line.length(); )
+        {
+            int j = last;
+            int k = i;
+            while(j >= 0 && fold(line.charAt(k)) == pattern[j])
+            {
+                j--;
+                k--;
+            }
+
+            if(j < 0) return k + 1;
+            i += shift[fold(line.charAt(i)) & 0xFF];
+        }
+
+        return -1;
+    }
+
+    private char fold(char c)
+    {
+        return matchCase ? c : foldCase(c);
+    }
+
+    /**
+     * Maps characters that are equal when case is ignored to the same character.
+     */
+    static char foldCase(char c)
+    {
+        if(c < 128) return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+        return Character.toLowerCase(Character.toUpperCase(c));
+    }
+}
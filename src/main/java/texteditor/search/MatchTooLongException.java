@@ -0,0 +1,13 @@
+package texteditor.search;
+
+/**
+ * Thrown when a regular expression keeps matching past the largest window of lines a search
+ * will join, for example (?s).* on a large document.
+ */
+public class MatchTooLongException extends RuntimeException
+{
+    public MatchTooLongException()
+    {
+        super("Match too long");
+    }
+}
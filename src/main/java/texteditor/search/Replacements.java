@@ -0,0 +1,28 @@
+package texteditor.search;
+
+import texteditor.LineDelta;
+
+/**
+ * The outcome of a replace-all: every changed line as one delta, and how many matches were replaced.
+ */
+public final class Replacements
+{
+    private final LineDelta delta;
+    private final int count;
+
+    Replacements(LineDelta delta, int count)
+    {
+        this.delta = delta;
+        this.count = count;
+    }
+
+    public LineDelta getDelta()
+    {
+        return delta;
+    }
+
+    public int getCount()
+    {
+        return count;
+    }
+}
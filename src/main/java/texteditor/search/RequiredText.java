@@ -0,0 +1,166 @@
+package texteditor.search;
+
+import java.util.regex.Pattern;
+
+/**
+ * Finds text that every match of a regular expression has to contain, so that an index can narrow
+ * down where to look. Only literal characters outside of groups and classes are considered, and
+ * anything unusual is skipped; finding less than possible only makes the index less useful.
+ */
+final class RequiredText
+{
+    // Inline comment mode makes whitespace in the expression meaningless.
+    private static final Pattern COMMENTS_FLAG = Pattern.compile("\\(\\?[a-zA-Z-]*x");
+
+    private RequiredText()
+    {
+    }
+
+    /**
+     * Returns the longest run of literal characters that every match contains on a single line,
+     * or an empty string if there is none.
+     */
+    static String of(String expression)
+    {
+        if(expression.contains("\\Q") || COMMENTS_FLAG.matcher(expression).find()) return "";
+
+        String longest = "";
+        StringBuilder run = new StringBuilder();
+        int i = 0;
+
+        while(i < expression.length())
+        {
+            char c = expression.charAt(i);
+
+            switch(c)
+            {
+                case '|':
+                    return "";
+
+                case '?':
+                case '*':
+                case '{':
+                    // The quantified character may be missing or repeated.
+                    if(run.length() > 0) run.setLength(run.length() - 1);
+                    longest = longer(longest, run);
+                    i = c == '{' ? skipPast(expression, i, '}') : i + 1;
+                    break;
+
+                case '+':
+                case '.':
+                case '^':
+                case '$':
+                    longest = longer(longest, run);
+                    i++;
+                    break;
+
+                case '(':
+                    longest = longer(longest, run);
+                    i = skipGroup(expression, i);
+                    break;
+
+                case '[':
+                    longest = longer(longest, run);
+                    i = skipClass(expression, i);
+                    break;
+
+                case '\\':
+                    if(i + 1 == expression.length()) return longer(longest, run);
+
+                    char escaped = expression.charAt(i + 1);
+                    i += 2;
+
+                    if(Character.isLetterOrDigit(escaped))
+                    {
+                        // Classes, anchors, back references and character codes, with their arguments.
+                        longest = longer(longest, run);
+                        i = skipEscapeArguments(expression, i);
+                    }
+                    else
+                    {
+                        longest = appendLiteral(longest, run, escaped);
+                    }
+                    break;
+
+                default:
+                    longest = appendLiteral(longest, run, c);
+                    i++;
+            }
+        }
+
+        return longer(longest, run);
+    }
+
+    // Adds the character to the run, unless it cannot be part of one; then the run ends there.
+    private static String appendLiteral(String longest, StringBuilder run, char c)
+    {
+        if(c == '\n' || c == '\r' || Character.isSurrogate(c)) return longer(longest, run);
+
+        run.append(c);
+        return longest;
+    }
+
+    // Ends the run and returns the longer of it and the longest one so far.
+    private static String longer(String longest, StringBuilder run)
+    {
+        String result = run.length() > longest.length() ? run.toString() : longest;
+        run.setLength(0);
+        return result;
+    }
+
+    private static int skipGroup(String expression, int i)
+    {
+        int depth = 0;
+
+        while(i < expression.length())
+        {
+            char c = expression.charAt(i);
+
+            if(c == '\\') i += 2;
+            else if(c == '[') i = skipClass(expression, i);
+            else
+            {
+                if(c == '(') depth++;
+                if(c == ')' && --depth == 0) return i + 1;
+                i++;
+            }
+        }
+
+        return i;
+    }
+
+    private static int skipClass(String expression, int i)
+    {
+        i++;
+        if(i < expression.length() && expression.charAt(i) == '^') i++;
+        if(i < expression.length() && expression.charAt(i) == ']') i++;
+
+        while(i < expression.length())
+        {
+            char c = expression.charAt(i);
+
+            if(c == '\\') i += 2;
+            else if(c == '[') i = skipClass(expression, i);
+            else if(c == ']') return i + 1;
+            else i++;
+        }
+
+        return i;
+    }
+
+    // Skips braces or angle brackets and any letters or digits after an escape, e.g. \p{Lu}, \k<name> or \x41.
+    private static int skipEscapeArguments(String expression, int i)
+    {
+        if(i < expression.length() && expression.charAt(i) == '{') return skipPast(expression, i, '}');
+        if(i < expression.length() && expression.charAt(i) == '<') return skipPast(expression, i, '>');
+
+        while(i < expression.length() && Character.isLetterOrDigit(expression.charAt(i))) i++;
+        return i;
+    }
+
+    private static int skipPast(String expression, int i, char end)
+    {
+        int found = expression.indexOf(end, i);
+        return found < 0 ? expression.length() : found + 1;
+    }
+}
@@ -0,0 +1,354 @@
+package texteditor.search;
+
+import texteditor.location.Location;
+import texteditor.location.LocationRange;
+import texteditor.storage.TextStorage;
+
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * What to look for in a document: either literal text, which may contain line breaks, or a
+ * regular expression. Regular expressions are matched against windows of whole lines, so they
+ * can span line breaks. A window grows while a match runs into its end; consecutive windows
+ * overlap, which finds matches spanning up to OVERLAP_LINES lines across window boundaries.
+ * A match that would need a window of more than LineWindow.MAX_CHARS characters fails the search
+ * with a MatchTooLongException.
+ *
+ * Searches can be given a TrigramIndex of the document. Literal searches then only read the rows
+ * the index reports, and regular expressions with some required text are only matched within
+ * OVERLAP_LINES lines around them.
+ */
+public final class SearchQuery
+{
+    private static final int WINDOW_LINES = 4096;
+    private static final int OVERLAP_LINES = 64;
+
+    private final String text;
+    private final boolean regex;
+    private final LiteralMatcher literal;
+    private final Pattern pattern;
+
+    // Text looked up in an index, which is found on the row indexRowOffset rows below where a match starts.
+    private final String indexText;
+    private final int indexRowOffset;
+
+    /**
+     * @throws java.util.regex.PatternSyntaxException if regex is set and the text is not a valid expression
+     */
+    public SearchQuery(String text, boolean regex, boolean matchCase)
+    {
+        if(text.isEmpty()) throw new IllegalArgumentException("Nothing to search for");
+
+        this.text = text;
+        this.regex = regex;
+
+        if(regex)
+        {
+            literal = null;
+            pattern = Pattern.compile(text, Pattern.MULTILINE | (matchCase ? 0 : Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE));
+            indexText = RequiredText.of(text);
+            indexRowOffset = 0;
+        }
+        else
+        {
+            literal = new LiteralMatcher(text, matchCase);
+            pattern = null;
+
+            String[] parts = literal.getParts();
+            int longest = 0;
+            for(int i = 1; i < parts.length; i++)
+            {
+                if(parts[i].length() > parts[longest].length()) longest = i;
+            }
+
+            indexText = parts[longest];
+            indexRowOffset = longest;
+        }
+    }
+
+    public String getText()
+    {
+        return text;
+    }
+
+    public boolean isRegex()
+    {
+        return regex;
+    }
+
+    /**
+     * Returns the first match that starts at or after the given location, or null if there is none.
+     */
+    public LocationRange findNext(TextStorage storage, Location from)
+    {
+        return findNext(storage, null, from);
+    }
+
+    /**
+     * Same as findNext(storage, from), using the index of the storage to skip rows if it is not null.
+     */
+    public LocationRange findNext(TextStorage storage, TrigramIndex index, Location from)
+    {
+        int[] rows = candidateRows(index);
+
+        if(!regex)
+        {
+            for(int row = nextRow(rows, from.row); row < storage.getLineCount(); row = nextRow(rows, row + 1))
+            {
+                int column = row == from.row ? from.column : 0;
+                LocationRange match = literal.findInLine(storage, row, storage.getLine(row), column);
+                if(match != null) return match;
+            }
+
+            return null;
+        }
+
+        LocationRange[] found = new LocationRange[1];
+        scanRegex(storage, rows, from, (matcher, window) ->
+        {
+            found[0] = new LocationRange(window.locationOf(matcher.start()), window.locationOf(matcher.end()));
+            return false;
+        });
+
+        return found[0];
+    }
+
+    /**
+     * Returns the text that should replace the given range, or null if the range is not a match.
+     * For regular expressions the replacement may refer to groups as in Matcher.appendReplacement.
+     */
+    public String replacementFor(TextStorage storage, LocationRange range, String replacement)
+    {
+        Location start = range.getStart();
+        Location end = range.getEnd();
+
+        if(!regex)
+        {
+            LocationRange match = literal.findInLine(storage, start.row, storage.getLine(start.row), start.column);
+            boolean matches = match != null && match.getStart().equals(start) && match.getEnd().equals(end);
+            return matches ? replacement : null;
+        }
+
+        LineWindow window = new LineWindow(storage, start.row, end.row - start.row + 1);
+        Matcher matcher = pattern.matcher(window);
+        matcher.useTransparentBounds(true);
+        matcher.useAnchoringBounds(false);
+        matcher.region(window.offsetOf(start), window.offsetOf(end));
+
+        if(!matcher.matches()) return null;
+        return expand(matcher, replacement, 0, new StringBuilder());
+    }
+
+    /**
+     * Replaces every match in the document. Nothing is changed yet; the result holds the
+     * changed lines as a single delta to apply in one edit.
+     */
+    public Replacements replaceAll(TextStorage storage, String replacement)
+    {
+        return replaceAll(storage, null, replacement);
+    }
+
+    /**
+     * Same as replaceAll(storage, replacement), using the index of the storage to skip rows if it is not null.
+     */
+    public Replacements replaceAll(TextStorage storage, TrigramIndex index, String replacement)
+    {
+        DeltaAssembler assembler = new DeltaAssembler(storage);
+        int[] rows = candidateRows(index);
+
+        if(!regex)
+        {
+            // Rows are read through the assembler, which needs the same lines again for the delta.
+            for(int row = nextRow(rows, 0), column = 0; row < storage.getLineCount(); row = nextRow(rows, row + 1), column = 0)
+            {
+                LocationRange match;
+                while((match = literal.findInLine(storage, row, assembler.line(row), column)) != null)
+                {
+                    assembler.replace(match.getStart(), match.getEnd(), replacement);
+                    row = match.getEnd().row;
+                    column = match.getEnd().column;
+                }
+            }
+
+            return assembler.finish();
+        }
+
+        StringBuilder buffer = new StringBuilder();
+        int[] appendPosition = new int[1];
+        Matcher[] current = new Matcher[1];
+
+        scanRegex(storage, rows, new Location(0, 0), (matcher, window) ->
+        {
+            if(matcher != current[0])
+            {
+                current[0] = matcher;
+                appendPosition[0] = 0;
+            }
+
+            String expanded = expand(matcher, replacement, appendPosition[0], buffer);
+            appendPosition[0] = matcher.end();
+
+            assembler.replace(window.locationOf(matcher.start()), window.locationOf(matcher.end()), expanded);
+            return true;
+        });
+
+        return assembler.finish();
+    }
+
+    //==================================================================
+    //                          Using an index
+    //==================================================================
+
+    // Rows on which matches may start for literal text, or that hold the required text of an expression.
+    private int[] candidateRows(TrigramIndex index)
+    {
+        if(index == null) return null;
+
+        int[] rows = index.candidateRows(indexText);
+        if(rows == null || indexRowOffset == 0) return rows;
+
+        int first = 0;
+        while(first < rows.length && rows[first] < indexRowOffset) first++;
+
+        int[] shifted = new int[rows.length - first];
+        for(int i = 0; i < shifted.length; i++)
+        {
+            shifted[i] = rows[first + i] - indexRowOffset;
+        }
+        return shifted;
+    }
+
+    // The first candidate row at or after the given one; without candidates every row is one.
+    private static int nextRow(int[] rows, int row)
+    {
+        if(rows == null) return row;
+
+        int index = Arrays.binarySearch(rows, row);
+        if(index < 0) index = -index - 1;
+        return index < rows.length ? rows[index] : Integer.MAX_VALUE;
+    }
+
+    //==================================================================
+    //                  Regular expressions over windows
+    //==================================================================
+
+    private interface MatchHandler
+    {
+        /**
+         * Receives each definite match in order; returns false to stop searching.
+         */
+        boolean onMatch(Matcher matcher, LineWindow window);
+    }
+
+    private void scanRegex(TextStorage storage, int[] rows, Location from, MatchHandler handler)
+    {
+        int lineCount = storage.getLineCount();
+
+        if(rows == null)
+        {
+            scanRegex(storage, from, lineCount, handler);
+            return;
+        }
+
+        // A match contains a row with the required text and spans at most OVERLAP_LINES lines,
+        // so only the rows that close to one are matched, merged into as few ranges as possible.
+        Location resume = from;
+        int i = 0;
+
+        while(resume != null && i < rows.length)
+        {
+            int start = Math.max(0, rows[i] - OVERLAP_LINES);
+            int end = rows[i] + OVERLAP_LINES + 1;
+
+            while(++i < rows.length && rows[i] - OVERLAP_LINES <= end)
+            {
+                end = rows[i] + OVERLAP_LINES + 1;
+            }
+
+            end = Math.min(end, lineCount);
+            if(end <= resume.row) continue;
+
+            resume = scanRegex(storage, start > resume.row ? new Location(start, 0) : resume, end, handler);
+        }
+    }
+
+    // Matches from the given location on, in windows that start before limitRow. Returns where a
+    // following scan should continue, or null once the handler stopped or the document has ended.
+    private Location scanRegex(TextStorage storage, Location from, int limitRow, MatchHandler handler)
+    {
+        Location resume = from;
+        int windowLines = Math.min(WINDOW_LINES, limitRow - from.row);
+
+        while(true)
+        {
+            LineWindow window = new LineWindow(storage, resume.row, windowLines);
+            Matcher matcher = pattern.matcher(window);
+            matcher.useTransparentBounds(true);
+            matcher.useAnchoringBounds(false);
+            matcher.region(window.offsetOf(resume), window.length());
+
+            Location next = null;
+
+            while(matcher.find())
+            {
+                // The match touched the end of the window and might have been longer with more lines.
+                if(matcher.hitEnd() && !window.reachesEnd())
+                {
+                    next = window.locationOf(matcher.start());
+                    break;
+                }
+
+                if(!handler.onMatch(matcher, window)) return null;
+
+                // Like Matcher.find, the search after an empty match continues one character later.
+                resume = window.locationOf(matcher.end());
+                if(matcher.start() == matcher.end()) resume = advance(storage, resume);
+                if(resume == null) return null;
+            }
+
+            if(next == null)
+            {
+                if(window.reachesEnd()) return null;
+
+                int windowEnd = window.getFirstRow() + window.getRowCount();
+                if(windowEnd >= limitRow) return resume;
+
+                // hitEnd is always set when find fails, so it cannot tell whether a match was cut off
+                // at the end of the window. The next window overlaps this one by a few lines instead.
+                int overlapRow = windowEnd - OVERLAP_LINES;
+                next = overlapRow > resume.row ? new Location(overlapRow, 0) : resume;
+            }
+
+            if(next.row == window.getFirstRow())
+            {
+                // A window that already stopped short of its lines cannot grow any further.
+                if(window.getRowCount() < windowLines) throw new MatchTooLongException();
+                windowLines *= 2;
+            }
+            else
+            {
+                windowLines = Math.min(WINDOW_LINES, limitRow - next.row);
+            }
+
+            resume = next;
+        }
+    }
+
+    private static Location advance(TextStorage storage, Location location)
+    {
+        if(location.column < storage.getLineLength(location.row)) return new Location(location.row, location.column + 1);
+        if(location.row + 1 < storage.getLineCount()) return new Location(location.row + 1, 0);
+        return null;
+    }
+
+    // Matcher only exposes group substitution through appendReplacement, which also copies the
+    // text since the previous match; that part is cut off again.
+    private static String expand(Matcher matcher, String replacement, int appendPosition, StringBuilder buffer)
+    {
+        buffer.setLength(0);
+        matcher.appendReplacement(buffer, replacement);
+        return buffer.substring(matcher.start() - appendPosition);
+    }
+}
@@ -0,0 +1,495 @@
+package texteditor.search;
+
+import texteditor.AbstractTextEditorModel;
+import texteditor.observer.TextChangeEvent;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.Executor;
+
+/**
+ * Remembers which lines of a document contain which trigrams, so that a search only has to look
+ * at the lines that can match. Every line gets an id when it is indexed and the posting list of
+ * a trigram holds the ids of its lines in increasing order. Ids stay the same while rows move;
+ * a changed line gets a new id and the old one is dropped, and dropped ids are compacted away
+ * once they outweigh the live ones.
+ *
+ * Trigrams are hashed into a fixed number of buckets and case is folded, so the index may report
+ * rows that do not match, but never misses one. Large insertions, such as opening a file, are
+ * indexed a chunk at a time on the given executor. An index that would need more memory than its
+ * limit gives up until the document is replaced.
+ */
+public class TrigramIndex
+{
+    private static final int BUCKET_BITS = 16;
+    private static final int CHUNK_LINES = 8192;
+    private static final int UNINDEXED = -1;
+    private static final long MIN_COMPACTION = 1 << 20;
+
+    private final AbstractTextEditorModel model;
+    private final Executor executor;
+    private final long memoryLimit;
+
+    private final RowIds rowIds = new RowIds();
+    private int[][] postings = new int[1 << BUCKET_BITS][];
+    private int[] postingSizes = new int[1 << BUCKET_BITS];
+    private long postingCapacity;
+
+    private int nextId;
+    private int[] idPostings = new int[1024];
+    private final BitSet dropped = new BitSet();
+    private long livePostings;
+    private long droppedPostings;
+
+    // Row of every live id; null whenever rows have moved since it was built.
+    private int[] rowOfId;
+
+    // Lines still waiting to be indexed. All lines before scanRow have been indexed.
+    private int unindexed;
+    private int scanRow;
+    private boolean chunkScheduled;
+    private boolean overLimit;
+
+    // Version of the model the index follows. Inside an edit, events are only delivered once it completes,
+    // so until then the model may be ahead of the index.
+    private long indexedVersion;
+
+    public TrigramIndex(AbstractTextEditorModel model, Executor executor, long memoryLimit)
+    {
+        this.model = model;
+        this.executor = executor;
+        this.memoryLimit = memoryLimit;
+
+        rebuild();
+        model.addTextChangeObserver(this::onTextChanged);
+    }
+
+    /**
+     * Returns true once every line is indexed and no change is pending, so that searches can rely on the index.
+     */
+    public boolean isReady()
+    {
+        return !overLimit && unindexed == 0 && indexedVersion == model.getVersion();
+    }
+
+    public boolean isOverLimit()
+    {
+        return overLimit;
+    }
+
+    /**
+     * Returns the estimated memory held by the index, in bytes.
+     */
+    public long getMemoryUsed()
+    {
+        long buckets = (long) postings.length * 16;
+        long ids = (long) idPostings.length * 4 + dropped.size() / 8 + (rowOfId == null ? 0 : (long) rowOfId.length * 4);
+        return postingCapacity * 4 + buckets + ids + rowIds.capacity() * 4L;
+    }
+
+    /**
+     * Returns the rows that may contain the given text in increasing order, or null if the index
+     * cannot narrow the search because it is not ready or the text is shorter than a trigram.
+     */
+    int[] candidateRows(String text)
+    {
+        if(!isReady() || text.length() < 3) return null;
+
+        int[] buckets = new int[text.length() - 2];
+        for(int i = 0; i < buckets.length; i++)
+        {
+            buckets[i] = bucketOf(fold(text.charAt(i)), fold(text.charAt(i + 1)), fold(text.charAt(i + 2)));
+        }
+
+        // Intersecting from the shortest list keeps every step as small as the result so far.
+        for(int i = 1; i < buckets.length; i++)
+        {
+            int bucket = buckets[i];
+            int j = i;
+            for(; j > 0 && postingSizes[buckets[j - 1]] > postingSizes[bucket]; j--) buckets[j] = buckets[j - 1];
+            buckets[j] = bucket;
+        }
+
+        int[] ids = Arrays.copyOf(postingsOf(buckets[0]), postingSizes[buckets[0]]);
+        int size = ids.length;
+
+        for(int i = 1; i < buckets.length && size > 0; i++)
+        {
+            size = intersect(ids, size, postingsOf(buckets[i]), postingSizes[buckets[i]]);
+        }
+
+        if(rowOfId == null) rowOfId = mapRows();
+
+        int[] rows = new int[size];
+        int count = 0;
+        for(int i = 0; i < size; i++)
+        {
+            if(!dropped.get(ids[i])) rows[count++] = rowOfId[ids[i]];
+        }
+
+        rows = Arrays.copyOf(rows, count);
+        Arrays.sort(rows);
+        return rows;
+    }
+
+    private int[] postingsOf(int bucket)
+    {
+        int[] list = postings[bucket];
+        return list == null ? new int[0] : list;
+    }
+
+    // Keeps the ids of the first list that are also in the second one and returns how many are left.
+    private static int intersect(int[] ids, int size, int[] other, int otherSize)
+    {
+        int count = 0;
+        int low = 0;
+
+        for(int i = 0; i < size && low < otherSize; i++)
+        {
+            int found = Arrays.binarySearch(other, low, otherSize, ids[i]);
+            if(found >= 0)
+            {
+                ids[count++] = ids[i];
+                low = found + 1;
+            }
+            else
+            {
+                low = -found - 1;
+            }
+        }
+
+        return count;
+    }
+
+    private int[] mapRows()
+    {
+        int[] rows = new int[nextId];
+        for(int row = 0; row < rowIds.size(); row++)
+        {
+            int id = rowIds.get(row);
+            if(id != UNINDEXED) rows[id] = row;
+        }
+        return rows;
+    }
+
+    //==================================================================
+    //                      Following the document
+    //==================================================================
+
+    private void onTextChanged(TextChangeEvent event)
+    {
+        indexedVersion = model.getVersion();
+        boolean replaced = event.getOldLength() == TextChangeEvent.UNKNOWN_LENGTH;
+        if(overLimit && !replaced) return;
+
+        int lineCount = model.getLines().size();
+        int start = event.getStart().row;
+        int removed = event.getLinesRemoved() + 1;
+        int inserted = event.getLinesInserted() + 1;
+
+        if(replaced || start + removed > rowIds.size() || rowIds.size() - removed + inserted != lineCount)
+        {
+            // A new document, or an event that does not fit what we have seen so far.
+            rebuild();
+            return;
+        }
+
+        for(int row = start; row < start + removed; row++)
+        {
+            drop(rowIds.get(row));
+        }
+
+        rowIds.delete(start, start + removed);
+        rowOfId = null;
+        scanRow = Math.min(scanRow, start);
+        insertRows(start, inserted);
+
+        if(droppedPostings > livePostings && droppedPostings > MIN_COMPACTION) compact();
+        enforceMemoryLimit();
+    }
+
+    private void rebuild()
+    {
+        indexedVersion = model.getVersion();
+        Arrays.fill(postings, null);
+        Arrays.fill(postingSizes, 0);
+        postingCapacity = 0;
+
+        nextId = 0;
+        idPostings = new int[1024];
+        dropped.clear();
+        livePostings = 0;
+        droppedPostings = 0;
+        rowOfId = null;
+
+        rowIds.clear();
+        unindexed = 0;
+        scanRow = 0;
+        overLimit = false;
+
+        insertRows(0, model.getLines().size());
+        enforceMemoryLimit();
+    }
+
+    private void insertRows(int start, int count)
+    {
+        if(count <= CHUNK_LINES)
+        {
+            for(int row = start; row < start + count; row++)
+            {
+                rowIds.insert(row, 1, indexLine(model.getLineChars(row)));
+            }
+            return;
+        }
+
+        rowIds.insert(start, count, UNINDEXED);
+        unindexed += count;
+        scheduleChunk();
+    }
+
+    private void scheduleChunk()
+    {
+        if(chunkScheduled) return;
+
+        chunkScheduled = true;
+        executor.execute(this::indexChunk);
+    }
+
+    private void indexChunk()
+    {
+        chunkScheduled = false;
+        if(unindexed == 0 || overLimit) return;
+
+        int budget = CHUNK_LINES;
+
+        for(; scanRow < rowIds.size() && budget > 0; scanRow++)
+        {
+            if(rowIds.get(scanRow) != UNINDEXED) continue;
+
+            rowIds.set(scanRow, indexLine(model.getLineChars(scanRow)));
+            unindexed--;
+            budget--;
+        }
+
+        rowOfId = null;
+        enforceMemoryLimit();
+        if(unindexed > 0 && !overLimit) scheduleChunk();
+    }
+
+    //==================================================================
+    //                          Postings
+    //==================================================================
+
+    // Adds the trigrams of the line under a new id and returns the id.
+    private int indexLine(CharSequence line)
+    {
+        int id = nextId++;
+        int added = 0;
+
+        if(line.length() >= 3)
+        {
+            char a = fold(line.charAt(0));
+            char b = fold(line.charAt(1));
+
+            for(int i = 2; i < line.length(); i++)
+            {
+                char c = fold(line.charAt(i));
+                if(addPosting(bucketOf(a, b, c), id)) added++;
+                a = b;
+                b = c;
+            }
+        }
+
+        if(id == idPostings.length) idPostings = Arrays.copyOf(idPostings, id * 2);
+        idPostings[id] = added;
+        livePostings += added;
+        return id;
+    }
+
+    private boolean addPosting(int bucket, int id)
+    {
+        int[] list = postings[bucket];
+        int size = postingSizes[bucket];
+
+        // The newest id is always the largest, so a repeated trigram of the same line is at the end.
+        if(size > 0 && list[size - 1] == id) return false;
+
+        if(list == null || size == list.length)
+        {
+            int capacity = list == null ? 4 : size + (size >> 1);
+            postingCapacity += capacity - (list == null ? 0 : list.length);
+            list = postings[bucket] = list == null ? new int[capacity] : Arrays.copyOf(list, capacity);
+        }
+
+        list[size] = id;
+        postingSizes[bucket] = size + 1;
+        return true;
+    }
+
+    private void drop(int id)
+    {
+        if(id == UNINDEXED)
+        {
+            unindexed--;
+            return;
+        }
+
+        dropped.set(id);
+        livePostings -= idPostings[id];
+        droppedPostings += idPostings[id];
+    }
+
+    // Renumbers the live ids from zero and removes the dropped ones from every posting list.
+    private void compact()
+    {
+        int[] newIds = new int[nextId];
+        int live = 0;
+
+        for(int id = 0; id < nextId; id++)
+        {
+            if(dropped.get(id))
+            {
+                newIds[id] = UNINDEXED;
+                continue;
+            }
+
+            idPostings[live] = idPostings[id];
+            newIds[id] = live++;
+        }
+
+        postingCapacity = 0;
+        for(int bucket = 0; bucket < postings.length; bucket++)
+        {
+            int[] list = postings[bucket];
+            if(list == null) continue;
+
+            int size = 0;
+            for(int i = 0; i < postingSizes[bucket]; i++)
+            {
+                int id = newIds[list[i]];
+                if(id != UNINDEXED) list[size++] = id;
+            }
+
+            postings[bucket] = size == 0 ? null : Arrays.copyOf(list, size);
+            postingSizes[bucket] = size;
+            postingCapacity += size;
+        }
+
+        for(int row = 0; row < rowIds.size(); row++)
+        {
+            int id = rowIds.get(row);
+            if(id != UNINDEXED) rowIds.set(row, newIds[id]);
+        }
+
+        nextId = live;
+        dropped.clear();
+        droppedPostings = 0;
+        rowOfId = null;
+    }
+
+    private void enforceMemoryLimit()
+    {
+        if(getMemoryUsed() <= memoryLimit) return;
+        if(droppedPostings > 0) compact();
+        if(getMemoryUsed() <= memoryLimit) return;
+
+        // Searching without the index is slower, but still correct.
+        overLimit = true;
+        Arrays.fill(postings, null);
+        Arrays.fill(postingSizes, 0);
+        postingCapacity = 0;
+        idPostings = new int[1024];
+        rowOfId = null;
+        rowIds.clear();
+    }
+
+    private static int bucketOf(char a, char b, char c)
+    {
+        long key = (long) a << 32 | (long) b << 16 | c;
+        return (int) (key * 0x9E3779B97F4A7C15L >>> (64 - BUCKET_BITS));
+    }
+
+    private static char fold(char c)
+    {
+        return LiteralMatcher.foldCase(c);
+    }
+
+    // Line ids by row in a gap buffer, since edits keep happening around the same rows.
+    private static class RowIds
+    {
+        private static final int MIN_GAP = 64;
+
+        private int[] buffer = new int[MIN_GAP];
+        private int gapStart;
+        private int gapEnd = MIN_GAP;
+
+        int size()
+        {
+            return buffer.length - (gapEnd - gapStart);
+        }
+
+        int capacity()
+        {
+            return buffer.length;
+        }
+
+        int get(int index)
+        {
+            return index < gapStart ? buffer[index] : buffer[index + gapEnd - gapStart];
+        }
+
+        void set(int index, int id)
+        {
+            buffer[index < gapStart ? index : index + gapEnd - gapStart] = id;
+        }
+
+        void insert(int index, int count, int id)
+        {
+            moveGap(index);
+
+            if(gapEnd - gapStart < count)
+            {
+                int[] grown = new int[Math.max(buffer.length * 2, size() + count + MIN_GAP)];
+                int tail = buffer.length - gapEnd;
+                System.arraycopy(buffer, 0, grown, 0, gapStart);
+                System.arraycopy(buffer, gapEnd, grown, grown.length - tail, tail);
+                gapEnd = grown.length - tail;
+                buffer = grown;
+            }
+
+            Arrays.fill(buffer, gapStart, gapStart + count, id);
+            gapStart += count;
+        }
+
+        void delete(int start, int end)
+        {
+            moveGap(start);
+            gapEnd += end - start;
+        }
+
+        void clear()
+        {
+            buffer = new int[MIN_GAP];
+            gapStart = 0;
+            gapEnd = buffer.length;
+        }
+
+        private void moveGap(int index)
+        {
+            if(index < gapStart)
+            {
+                int count = gapStart - index;
+                System.arraycopy(buffer, index, buffer, gapEnd - count, count);
+                gapStart -= count;
+                gapEnd -= count;
+            }
+            else if(index > gapStart)
+            {
+                int count = index - gapStart;
+                System.arraycopy(buffer, gapEnd, buffer, gapStart, count);
+                gapStart += count;
+                gapEnd += count;
+            }
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package texteditor.storage;
+
+// Reading through CharSequence never moves the gap; only toString() does, to copy the text out in one piece.
+class GapBuffer implements CharSequence
+{
+    private static final int MIN_GAP = 64;
+
+    private char[] buffer = new char[MIN_GAP];
+    private int gapStart;
+    private int gapEnd = MIN_GAP;
+
+    void load(String text)
+    {
+        int length = text.length();
+        if(buffer.length < length + MIN_GAP) buffer = new char[length * 2 + MIN_GAP];
+
+        text.getChars(0, length, buffer, 0);
+        gapStart = length;
+        gapEnd = buffer.length;
+    }
+
+    @Override
+    public int length()
+    {
+        return buffer.length - (gapEnd - gapStart);
+    }
+
+    @Override
+    public char charAt(int index)
+    {
+        return index < gapStart ? buffer[index] : buffer[index + gapEnd - gapStart];
+    }
+
+    void insert(int position, char c)
+    {
+        moveGap(position);
+        ensureGap(1);
+        buffer[gapStart++] = c;
+    }
+
+    void insert(int position, String text)
+    {
+        moveGap(position);
+        ensureGap(text.length());
+        text.getChars(0, text.length(), buffer, gapStart);
+        gapStart += text.length();
+    }
+
+    void delete(int start, int end)
+    {
+        moveGap(start);
+        gapEnd += end - start;
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end)
+    {
+        StringBuilder sb = new StringBuilder(end - start);
+        for(int i = start; i < end; i++) sb.append(charAt(i));
+        return sb.toString();
+    }
+
+    @Override
+    public String toString()
+    {
+        moveGap(length());
+        return new String(buffer, 0, gapStart);
+    }
+
+    private void moveGap(int position)
+    {
+        if(position < gapStart)
+        {
+            int count = gapStart - position;
+            System.arraycopy(buffer, position, buffer, gapEnd - count, count);
+            gapStart -= count;
+            gapEnd -= count;
+        }
+        else if(position > gapStart)
+        {
+            int count = position - gapStart;
+            System.arraycopy(buffer, gapEnd, buffer, gapStart, count);
+            gapStart += count;
+            gapEnd += count;
+        }
+    }
+
+    private void ensureGap(int required)
+    {
+        if(gapEnd - gapStart >= required) return;
+
+        int tail = buffer.length - gapEnd;
+        char[] grown = new char[Math.max(buffer.length * 2, length() + required + MIN_GAP)];
+
+        System.arraycopy(buffer, 0, grown, 0, gapStart);
+        System.arraycopy(buffer, gapEnd, grown, grown.length - tail, tail);
+
+        gapEnd = grown.length - tail;
+        buffer = grown;
+    }
+}
@@ -0,0 +1,168 @@
+package texteditor.storage;
+
+import texteditor.location.Location;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class LineListStorage implements TextStorage
+{
+    private List<String> lines = new ArrayList<>();
+
+    // The row being typed on lives in a gap buffer and is written back when editing moves elsewhere.
+    private final GapBuffer activeLine = new GapBuffer();
+    private int activeRow = -1;
+    private String activeText;
+
+    public LineListStorage()
+    {
+        lines.add("");
+    }
+
+    @Override
+    public int getLineCount()
+    {
+        return lines.size();
+    }
+
+    @Override
+    public String getLine(int row)
+    {
+        if(row != activeRow) return lines.get(row);
+
+        if(activeText == null) activeText = activeLine.toString();
+        return activeText;
+    }
+
+    @Override
+    public CharSequence getLineChars(int row)
+    {
+        return row == activeRow ? activeLine : lines.get(row);
+    }
+
+    @Override
+    public int getLineLength(int row)
+    {
+        return row == activeRow ? activeLine.length() : lines.get(row).length();
+    }
+
+    @Override
+    public char charAt(int row, int column)
+    {
+        return row == activeRow ? activeLine.charAt(column) : lines.get(row).charAt(column);
+    }
+
+    @Override
+    public void insert(Location location, char c)
+    {
+        if(c == '\n')
+        {
+            insert(location, "\n");
+            return;
+        }
+
+        activate(location.row);
+        activeLine.insert(location.column, c);
+        activeText = null;
+    }
+
+    @Override
+    public void insert(Location location, String text)
+    {
+        if(text.indexOf('\n') < 0)
+        {
+            activate(location.row);
+            activeLine.insert(location.column, text);
+            activeText = null;
+            return;
+        }
+
+        flush();
+
+        String line = lines.get(location.row);
+        String prefix = line.substring(0, location.column);
+        String suffix = line.substring(location.column);
+
+        var continuousStrings = text.split("\n", -1);
+        int last = continuousStrings.length - 1;
+
+        continuousStrings[0] = prefix + continuousStrings[0];
+        continuousStrings[last] = continuousStrings[last] + suffix;
+
+        lines.set(location.row, continuousStrings[0]);
+        lines.addAll(location.row + 1, Arrays.asList(continuousStrings).subList(1, continuousStrings.length));
+    }
+
+    @Override
+    public void delete(Location start, Location end)
+    {
+        if(start.row == end.row)
+        {
+            activate(start.row);
+            activeLine.delete(start.column, end.column);
+            activeText = null;
+            return;
+        }
+
+        flush();
+
+        String startLine = lines.get(start.row).substring(0, start.column);
+        String endLine = lines.get(end.row).substring(end.column);
+        lines.set(start.row, startLine + endLine);
+        lines.subList(start.row + 1, end.row + 1).clear();
+    }
+
+    @Override
+    public void replaceLines(int start, int end, List<String> lines)
+    {
+        flush();
+
+        if(start == 0 && end == this.lines.size())
+        {
+            setLines(lines);
+            return;
+        }
+
+        // Hunks of changed lines usually keep their size, which needs no shifting of the rows after them.
+        if(end - start == lines.size())
+        {
+            for(int i = 0; i < lines.size(); i++)
+                this.lines.set(start + i, lines.get(i));
+
+            return;
+        }
+
+        List<String> replaced = this.lines.subList(start, end);
+        replaced.clear();
+        replaced.addAll(lines);
+    }
+
+    @Override
+    public void setLines(List<String> lines)
+    {
+        activeRow = -1;
+        activeText = null;
+
+        this.lines = new ArrayList<>(lines);
+        if(this.lines.isEmpty()) this.lines.add("");
+    }
+
+    private void activate(int row)
+    {
+        if(row == activeRow) return;
+
+        flush();
+        activeLine.load(lines.get(row));
+        activeRow = row;
+    }
+
+    private void flush()
+    {
+        if(activeRow < 0) return;
+
+        lines.set(activeRow, getLine(activeRow));
+        activeRow = -1;
+        activeText = null;
+    }
+}
@@ -0,0 +1,15 @@
+package texteditor.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+public interface LineSink
+{
+    void writeLine(String line) throws IOException;
+
+    /**
+     * Copies the remaining already encoded bytes of the buffer, which complete the given number of lines
+     * including their line terminators.
+     */
+    void transfer(ByteBuffer bytes, int lines) throws IOException;
+}
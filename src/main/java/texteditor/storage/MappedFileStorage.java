@@ -0,0 +1,620 @@
+package texteditor.storage;
+
+import texteditor.location.Location;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.function.IntConsumer;
+
+public class MappedFileStorage implements TextStorage
+{
+    private static final long REGION_SIZE = 1L << 30;
+    private static final int CHECKPOINT_STRIDE = 32;
+    private static final int DECODED_CACHE_SIZE = 1024;
+    private static final long PUBLISH_INTERVAL_NANOS = 250_000_000L;
+
+    private final Path path;
+    private final long size;
+    private final MappedByteBuffer[] regions;
+    private final LineIndex index;
+    private IntConsumer appendListener;
+
+    private int cachedLine = -1;
+    private long cachedLineStart;
+    private final Map<Integer, String> decodedLines = new LinkedHashMap<>(DECODED_CACHE_SIZE, 0.75f, true)
+    {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, String> eldest)
+        {
+            return size() > DECODED_CACHE_SIZE;
+        }
+    };
+
+    // The document is a sequence of mapped and edited spans. While the file is being indexed, the last span
+    // is open: it covers the rest of the file and grows as more of it is indexed.
+    private final List<Span> spans = new ArrayList<>();
+    private int lineCount;
+
+    // spanEnds[i] is the number of lines in the spans up to and including i; null after the spans changed.
+    private int[] spanEnds;
+
+    // Set on snapshots of a storage whose file was still being indexed; they take the rest of it when first read.
+    private boolean awaitingTail;
+
+    public MappedFileStorage(Path path, Executor callbackExecutor) throws IOException
+    {
+        this.path = path;
+
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+        {
+            size = channel.size();
+            regions = new MappedByteBuffer[(int) ((size + REGION_SIZE - 1) / REGION_SIZE)];
+
+            for(int i = 0; i < regions.length; i++)
+            {
+                long position = i * REGION_SIZE;
+                regions[i] = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(REGION_SIZE, size - position));
+            }
+        }
+
+        index = new LineIndex(regions, size, () -> callbackExecutor.execute(this::revealIndexedLines));
+        lineCount = index.availableLines();
+        spans.add(new Span(0, null, lineCount, !index.complete));
+
+        Thread indexer = new Thread(index, "line-index-" + path.getFileName());
+        indexer.setDaemon(true);
+        index.thread = indexer;
+        indexer.start();
+    }
+
+    private MappedFileStorage(MappedFileStorage source)
+    {
+        path = source.path;
+        size = source.size;
+        regions = source.regions;
+        index = source.index;
+        lineCount = source.lineCount;
+
+        for(Span span : source.spans) spans.add(span.tail(0));
+        awaitingTail = openTail() != null;
+    }
+
+    public Path getPath()
+    {
+        return path;
+    }
+
+    public boolean isIndexComplete()
+    {
+        return index.complete;
+    }
+
+    @Override
+    public boolean isComplete()
+    {
+        return openTail() == null;
+    }
+
+    @Override
+    public boolean isLazy()
+    {
+        return true;
+    }
+
+    //==================================================================
+    //                          Reading
+    //==================================================================
+
+    @Override
+    public int getLineCount()
+    {
+        takeTail();
+        return Math.max(1, lineCount);
+    }
+
+    @Override
+    public String getLine(int row)
+    {
+        takeTail();
+
+        if(row == 0 && lineCount == 0) return "";
+        if(row < 0 || row >= lineCount) throw new IndexOutOfBoundsException(row);
+
+        int spanIndex = spanIndex(row);
+        Span span = spans.get(spanIndex);
+        int offset = row - spanStart(spanIndex);
+
+        return span.lines == null ? decode(span.firstMappedLine + offset) : span.lines.get(offset);
+    }
+
+    @Override
+    public void setAppendListener(IntConsumer listener)
+    {
+        this.appendListener = listener;
+    }
+
+    // Neither waits for the index: a snapshot taken while indexing goes on waits for it on the thread that reads it.
+    @Override
+    public TextStorage snapshot()
+    {
+        return new MappedFileStorage(this);
+    }
+
+    // Reading fills the line start and decoded line caches, so every reader needs its own.
+    @Override
+    public TextStorage concurrentReader()
+    {
+        takeTail();
+        return new MappedFileStorage(this);
+    }
+
+    // Untouched line ranges are copied straight from the mapping without being decoded. The file is never
+    // opened again by its path: saving may have replaced it with different content in the meantime.
+    @Override
+    public void writeTo(LineSink sink) throws IOException
+    {
+        takeTail();
+        index.await();
+        int mappedLines = index.availableLines();
+
+        for(Span span : spans)
+        {
+            if(span.lines != null)
+            {
+                for(String line : span.lines) sink.writeLine(line);
+                continue;
+            }
+
+            // An open tail of the storage itself has not been grown yet, but the index is complete by now.
+            int count = span.open ? mappedLines - span.firstMappedLine : span.count;
+            if(count == 0) continue;
+
+            int endLine = span.firstMappedLine + count;
+            long start = lineStart(span.firstMappedLine);
+            long end = endLine < mappedLines ? lineStart(endLine) : size;
+            copyMapped(sink, start, end, count);
+
+            if(endLine == mappedLines && size > 0 && byteAt(size - 1) != '\n')
+                sink.writeLine("");
+        }
+    }
+
+    private void copyMapped(LineSink sink, long start, long end, int lines) throws IOException
+    {
+        while(start < end)
+        {
+            ByteBuffer region = regions[(int) (start / REGION_SIZE)].duplicate();
+            int from = (int) (start % REGION_SIZE);
+            int length = (int) Math.min(end - start, region.limit() - from);
+
+            region.limit(from + length);
+            region.position(from);
+            start += length;
+
+            // The lines are counted once the last of their bytes is copied.
+            sink.transfer(region, start == end ? lines : 0);
+        }
+    }
+
+    //==================================================================
+    //              Modifying (edits are overlaid on the mapping)
+    //==================================================================
+
+    @Override
+    public void insert(Location location, String text)
+    {
+        String line = getLine(location.row);
+        String modified = line.substring(0, location.column) + text + line.substring(location.column);
+        replaceLines(location.row, location.row + 1, Arrays.asList(modified.split("\n", -1)));
+    }
+
+    @Override
+    public void delete(Location start, Location end)
+    {
+        String joined = getLine(start.row).substring(0, start.column) + getLine(end.row).substring(end.column);
+        replaceLines(start.row, end.row + 1, List.of(joined));
+    }
+
+    // Replaces the rest of the file as well, even the part that has not been indexed yet.
+    @Override
+    public void setLines(List<String> lines)
+    {
+        awaitingTail = false;
+        spans.clear();
+        spanEnds = null;
+        lineCount = 0;
+        replaceLines(0, 0, lines.isEmpty() ? List.of("") : lines);
+    }
+
+    @Override
+    public void replaceLines(int start, int end, List<String> lines)
+    {
+        takeTail();
+
+        // The empty line shown before anything was indexed has nothing of the file behind it yet.
+        if(lineCount == 0) end = 0;
+        if(lines.isEmpty() && start == 0 && end == lineCount && openTail() == null) lines = List.of("");
+
+        if(replaceInEditedSpan(start, end, lines)) return;
+
+        int first = splitAt(start);
+        int last = splitAt(end);
+        spans.subList(first, last).clear();
+
+        if(!lines.isEmpty())
+        {
+            spans.add(first, new Span(-1, new ArrayList<>(lines), lines.size(), false));
+            mergeEditedSpans(first);
+        }
+
+        lineCount += lines.size() - (end - start);
+        spanEnds = null;
+    }
+
+    private boolean replaceInEditedSpan(int start, int end, List<String> lines)
+    {
+        int spanIndex = spanIndex(start);
+
+        // Lines inserted right after an edited span are appended to it.
+        if(start == end && spanIndex > 0 && start == spanStart(spanIndex) && spans.get(spanIndex - 1).lines != null)
+            spanIndex--;
+
+        if(spanIndex == spans.size()) return false;
+
+        Span span = spans.get(spanIndex);
+        int offset = spanStart(spanIndex);
+        if(span.lines == null || end - offset > span.count) return false;
+
+        List<String> replaced = span.lines.subList(start - offset, end - offset);
+        replaced.clear();
+        replaced.addAll(lines);
+
+        span.count = span.lines.size();
+        lineCount += lines.size() - (end - start);
+        spanEnds = null;
+        return true;
+    }
+
+    // Makes sure a span boundary lies at the given row and returns the index of the span starting there.
+    // Rows past the end still go before an open tail, so that the tail keeps growing at the end of the document.
+    private int splitAt(int row)
+    {
+        int spanIndex = spanIndex(row);
+        if(spanIndex == spans.size())
+        {
+            if(openTail() == null) return spans.size();
+            spanIndex--;
+        }
+
+        Span span = spans.get(spanIndex);
+        int offset = row - spanStart(spanIndex);
+        if(offset == 0) return spanIndex;
+
+        spans.set(spanIndex, span.head(offset));
+        spans.add(spanIndex + 1, span.tail(offset));
+        spanEnds = null;
+        return spanIndex + 1;
+    }
+
+    private void mergeEditedSpans(int index)
+    {
+        if(index + 1 < spans.size() && spans.get(index + 1).lines != null)
+        {
+            Span next = spans.remove(index + 1);
+            spans.get(index).append(next);
+        }
+
+        if(index > 0 && spans.get(index - 1).lines != null)
+        {
+            Span current = spans.remove(index);
+            spans.get(index - 1).append(current);
+        }
+    }
+
+    // Returns the index of the span holding the row, or the number of spans if the row is past the last line.
+    private int spanIndex(int row)
+    {
+        int[] ends = spanEnds();
+        int low = 0;
+        int high = ends.length;
+
+        while(low < high)
+        {
+            int middle = (low + high) >>> 1;
+            if(ends[middle] <= row) low = middle + 1;
+            else high = middle;
+        }
+
+        return low;
+    }
+
+    private int spanStart(int spanIndex)
+    {
+        return spanIndex == 0 ? 0 : spanEnds()[spanIndex - 1];
+    }
+
+    private int[] spanEnds()
+    {
+        if(spanEnds != null) return spanEnds;
+
+        int[] ends = new int[spans.size()];
+        int total = 0;
+
+        for(int i = 0; i < ends.length; i++)
+        {
+            total += spans.get(i).count;
+            ends[i] = total;
+        }
+
+        spanEnds = ends;
+        return ends;
+    }
+
+    private Span openTail()
+    {
+        if(spans.isEmpty()) return null;
+
+        Span last = spans.get(spans.size() - 1);
+        return last.open ? last : null;
+    }
+
+    private static class Span
+    {
+        private final int firstMappedLine;
+        private final List<String> lines;
+        private int count;
+
+        // Only the last span can be open; it then also covers the lines of the file that are not indexed yet.
+        private boolean open;
+
+        private Span(int firstMappedLine, List<String> lines, int count, boolean open)
+        {
+            this.firstMappedLine = firstMappedLine;
+            this.lines = lines;
+            this.count = count;
+            this.open = open;
+        }
+
+        private Span head(int length)
+        {
+            if(lines == null) return new Span(firstMappedLine, null, length, false);
+            return new Span(-1, new ArrayList<>(lines.subList(0, length)), length, false);
+        }
+
+        private Span tail(int from)
+        {
+            if(lines == null) return new Span(firstMappedLine + from, null, count - from, open);
+            return new Span(-1, new ArrayList<>(lines.subList(from, count)), count - from, false);
+        }
+
+        private void append(Span other)
+        {
+            lines.addAll(other.lines);
+            count += other.count;
+        }
+    }
+
+    //==================================================================
+    //                  Decoding lines from the mapping
+    //==================================================================
+
+    private String decode(int line)
+    {
+        String decoded = decodedLines.get(line);
+        if(decoded != null) return decoded;
+
+        long start = lineStart(line);
+        long end = nextLineFeed(start);
+        if(end < 0) end = size;
+        if(end > start && byteAt(end - 1) == '\r') end--;
+
+        byte[] bytes = new byte[(int) (end - start)];
+        for(int copied = 0; copied < bytes.length; )
+        {
+            long position = start + copied;
+            ByteBuffer region = regions[(int) (position / REGION_SIZE)].duplicate();
+            region.position((int) (position % REGION_SIZE));
+
+            int length = Math.min(bytes.length - copied, region.remaining());
+            region.get(bytes, copied, length);
+            copied += length;
+        }
+
+        decoded = new String(bytes, StandardCharsets.UTF_8);
+        decodedLines.put(line, decoded);
+        return decoded;
+    }
+
+    private long lineStart(int line)
+    {
+        if(line == cachedLine) return cachedLineStart;
+
+        int current;
+        long position;
+
+        if(cachedLine >= 0 && line > cachedLine && line / CHECKPOINT_STRIDE == cachedLine / CHECKPOINT_STRIDE)
+        {
+            current = cachedLine;
+            position = cachedLineStart;
+        }
+        else
+        {
+            current = line - line % CHECKPOINT_STRIDE;
+            position = index.checkpoints[line / CHECKPOINT_STRIDE];
+        }
+
+        while(current < line)
+        {
+            position = nextLineFeed(position) + 1;
+            current++;
+        }
+
+        cachedLine = line;
+        cachedLineStart = position;
+        return position;
+    }
+
+    private long nextLineFeed(long position)
+    {
+        for(; position < size; position++)
+        {
+            if(byteAt(position) == '\n') return position;
+        }
+
+        return -1;
+    }
+
+    private byte byteAt(long position)
+    {
+        return regions[(int) (position / REGION_SIZE)].get((int) (position % REGION_SIZE));
+    }
+
+    //==================================================================
+    //                  Background line index
+    //==================================================================
+
+    // Runs on the owning thread, so readers never see the line count change in the middle of an operation.
+    private void revealIndexedLines()
+    {
+        Span tail = openTail();
+        if(tail == null) return;
+
+        int previous = lineCount;
+        growTail(tail);
+        if(lineCount > previous && appendListener != null) appendListener.accept(previous);
+    }
+
+    private void takeTail()
+    {
+        if(!awaitingTail) return;
+
+        awaitingTail = false;
+        index.await();
+
+        Span tail = openTail();
+        if(tail != null) growTail(tail);
+    }
+
+    private void growTail(Span tail)
+    {
+        boolean complete = index.complete;
+        int revealed = index.availableLines() - tail.firstMappedLine;
+
+        if(revealed > tail.count)
+        {
+            lineCount += revealed - tail.count;
+            tail.count = revealed;
+            spanEnds = null;
+        }
+
+        if(complete) tail.open = false;
+    }
+
+    // Shared by a storage and its snapshots; everything but the thread itself is only written by the indexer.
+    private static class LineIndex implements Runnable
+    {
+        private final MappedByteBuffer[] regions;
+        private final long size;
+        private final Runnable publishListener;
+        private Thread thread;
+
+        // Start offset of every CHECKPOINT_STRIDE-th line.
+        private volatile long[] checkpoints = new long[1024];
+        private volatile int indexedLines = 1;
+        private volatile boolean complete;
+
+        private LineIndex(MappedByteBuffer[] regions, long size, Runnable publishListener)
+        {
+            this.regions = regions;
+            this.size = size;
+            this.publishListener = publishListener;
+        }
+
+        // Lines whose end is already known.
+        private int availableLines()
+        {
+            if(size == 0) return 1;
+            return complete ? indexedLines : indexedLines - 1;
+        }
+
+        @Override
+        public void run()
+        {
+            long[] points = checkpoints;
+            int lines = 1;
+            long lastPublish = System.nanoTime();
+
+            try
+            {
+                for(int r = 0; r < regions.length; r++)
+                {
+                    MappedByteBuffer region = regions[r];
+                    long regionStart = r * REGION_SIZE;
+                    int limit = region.limit();
+
+                    for(int i = 0; i < limit; i++)
+                    {
+                        if(region.get(i) != '\n') continue;
+
+                        long next = regionStart + i + 1;
+                        if(next == size) break;
+
+                        if(lines % CHECKPOINT_STRIDE == 0)
+                        {
+                            int index = lines / CHECKPOINT_STRIDE;
+                            if(index == points.length) points = Arrays.copyOf(points, points.length * 2);
+                            points[index] = next;
+                        }
+
+                        lines++;
+
+                        if((lines & 0xFFFF) == 0 && System.nanoTime() - lastPublish > PUBLISH_INTERVAL_NANOS)
+                        {
+                            checkpoints = points;
+                            indexedLines = lines;
+                            publishListener.run();
+                            lastPublish = System.nanoTime();
+                        }
+                    }
+                }
+            }
+            finally
+            {
+                checkpoints = points;
+                indexedLines = lines;
+                complete = true;
+                publishListener.run();
+            }
+        }
+
+        private void await()
+        {
+            boolean interrupted = false;
+
+            while(thread.isAlive())
+            {
+                try
+                {
+                    thread.join();
+                }
+                catch (InterruptedException e)
+                {
+                    interrupted = true;
+                }
+            }
+
+            if(interrupted) Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,431 @@
+package texteditor.storage;
+
+import texteditor.location.Location;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+
+public class PieceTableStorage implements TextStorage
+{
+    private Buffer original = new Buffer();
+    private Buffer added = new Buffer();
+    private Piece root;
+    private final Random random = new Random();
+
+    //==================================================================
+    //                          Reading
+    //==================================================================
+
+    @Override
+    public int getLineCount()
+    {
+        return lineFeeds(root) + 1;
+    }
+
+    @Override
+    public String getLine(int row)
+    {
+        Objects.checkIndex(row, getLineCount());
+        return text(lineStart(row), lineEnd(row));
+    }
+
+    @Override
+    public int getLineLength(int row)
+    {
+        Objects.checkIndex(row, getLineCount());
+        return lineEnd(row) - lineStart(row);
+    }
+
+    @Override
+    public char charAt(int row, int column)
+    {
+        int offset = lineStart(row) + column;
+        Piece node = root;
+
+        while(node != null)
+        {
+            int leftLength = length(node.left);
+
+            if(offset < leftLength)
+            {
+                node = node.left;
+            }
+            else if(offset < leftLength + node.length)
+            {
+                return node.buffer.text.charAt(node.start + offset - leftLength);
+            }
+            else
+            {
+                offset -= leftLength + node.length;
+                node = node.right;
+            }
+        }
+
+        throw new IndexOutOfBoundsException();
+    }
+
+    @Override
+    public String getText(Location start, Location end)
+    {
+        return text(offsetOf(start), offsetOf(end));
+    }
+
+    //==================================================================
+    //                          Modifying
+    //==================================================================
+
+    @Override
+    public void insert(Location location, String text)
+    {
+        if(text.isEmpty()) return;
+
+        int bufferStart = added.text.length();
+        added.append(text);
+        insertAdded(offsetOf(location), bufferStart, text.length());
+    }
+
+    @Override
+    public void insert(Location location, char c)
+    {
+        int bufferStart = added.text.length();
+        added.append(c);
+        insertAdded(offsetOf(location), bufferStart, 1);
+    }
+
+    @Override
+    public void delete(Location start, Location end)
+    {
+        int startOffset = offsetOf(start);
+        int endOffset = offsetOf(end);
+        if(startOffset >= endOffset) return;
+
+        Piece[] head = split(root, startOffset);
+        Piece[] tail = split(head[1], endOffset - startOffset);
+        root = merge(head[0], tail[1]);
+    }
+
+    @Override
+    public void setLines(List<String> lines)
+    {
+        original = new Buffer();
+        added = new Buffer();
+
+        for(int i = 0; i < lines.size(); i++)
+        {
+            if(i > 0) original.append('\n');
+            original.append(lines.get(i));
+        }
+
+        int length = original.text.length();
+        root = length == 0 ? null : new Piece(original, 0, length, original.lineFeedsIn(0, length), random.nextInt());
+    }
+
+    @Override
+    public TextStorage snapshot()
+    {
+        PieceTableStorage copy = new PieceTableStorage();
+        copy.original = original;
+        copy.added = added.copy();
+        copy.root = copyTree(root, copy.added);
+        return copy;
+    }
+
+    private Piece copyTree(Piece node, Buffer addedCopy)
+    {
+        if(node == null) return null;
+
+        Piece copy = new Piece(node.buffer == added ? addedCopy : node.buffer, node.start, node.length, node.lineFeeds, node.priority);
+        copy.left = copyTree(node.left, addedCopy);
+        copy.right = copyTree(node.right, addedCopy);
+        copy.update();
+        return copy;
+    }
+
+    private void insertAdded(int offset, int bufferStart, int length)
+    {
+        int lineFeeds = added.lineFeedsIn(bufferStart, bufferStart + length);
+        Piece[] parts = split(root, offset);
+        Piece last = rightmost(parts[0]);
+
+        // Typing usually continues right after the previous insertion, so the last piece can simply grow.
+        if(last != null && last.buffer == added && last.start + last.length == bufferStart)
+        {
+            extendRightmost(parts[0], length, lineFeeds);
+            root = merge(parts[0], parts[1]);
+        }
+        else
+        {
+            Piece piece = new Piece(added, bufferStart, length, lineFeeds, random.nextInt());
+            root = merge(merge(parts[0], piece), parts[1]);
+        }
+    }
+
+    //==================================================================
+    //                      Offset calculations
+    //==================================================================
+
+    private int offsetOf(Location location)
+    {
+        return lineStart(location.row) + location.column;
+    }
+
+    private int lineStart(int row)
+    {
+        return row == 0 ? 0 : lineFeedOffset(row) + 1;
+    }
+
+    private int lineEnd(int row)
+    {
+        return row + 1 < getLineCount() ? lineFeedOffset(row + 1) : length(root);
+    }
+
+    // Document offset of the n-th line feed, counting from 1.
+    private int lineFeedOffset(int n)
+    {
+        Piece node = root;
+        int offset = 0;
+
+        while(true)
+        {
+            int leftLineFeeds = lineFeeds(node.left);
+
+            if(n <= leftLineFeeds)
+            {
+                node = node.left;
+                continue;
+            }
+
+            n -= leftLineFeeds;
+            offset += length(node.left);
+
+            if(n <= node.lineFeeds)
+            {
+                int index = node.buffer.lineFeedsBefore(node.start) + n - 1;
+                return offset + node.buffer.lineFeeds[index] - node.start;
+            }
+
+            n -= node.lineFeeds;
+            offset += node.length;
+            node = node.right;
+        }
+    }
+
+    private String text(int start, int end)
+    {
+        StringBuilder sb = new StringBuilder(end - start);
+        appendText(root, 0, start, end, sb);
+        return sb.toString();
+    }
+
+    private void appendText(Piece node, int nodeOffset, int start, int end, StringBuilder sb)
+    {
+        if(node == null) return;
+
+        int pieceStart = nodeOffset + length(node.left);
+        int pieceEnd = pieceStart + node.length;
+
+        if(start < pieceStart)
+            appendText(node.left, nodeOffset, start, end, sb);
+
+        int from = Math.max(start, pieceStart);
+        int to = Math.min(end, pieceEnd);
+        if(from < to)
+            sb.append(node.buffer.text, node.start + from - pieceStart, node.start + to - pieceStart);
+
+        if(end > pieceEnd)
+            appendText(node.right, pieceEnd, start, end, sb);
+    }
+
+    //==================================================================
+    //                      Piece tree (treap)
+    //==================================================================
+
+    private Piece[] split(Piece node, int offset)
+    {
+        if(node == null) return new Piece[2];
+
+        int leftLength = length(node.left);
+
+        if(offset <= leftLength)
+        {
+            Piece[] parts = split(node.left, offset);
+            node.left = parts[1];
+            node.update();
+            parts[1] = node;
+            return parts;
+        }
+
+        if(offset >= leftLength + node.length)
+        {
+            Piece[] parts = split(node.right, offset - leftLength - node.length);
+            node.right = parts[0];
+            node.update();
+            parts[0] = node;
+            return parts;
+        }
+
+        int k = offset - leftLength;
+        Buffer buffer = node.buffer;
+        Piece tail = new Piece(buffer, node.start + k, node.length - k,
+                buffer.lineFeedsIn(node.start + k, node.start + node.length), node.priority);
+
+        tail.right = node.right;
+        tail.update();
+
+        node.length = k;
+        node.lineFeeds -= tail.lineFeeds;
+        node.right = null;
+        node.update();
+
+        return new Piece[] {node, tail};
+    }
+
+    private Piece merge(Piece a, Piece b)
+    {
+        if(a == null) return b;
+        if(b == null) return a;
+
+        if(a.priority > b.priority)
+        {
+            a.right = merge(a.right, b);
+            a.update();
+            return a;
+        }
+
+        b.left = merge(a, b.left);
+        b.update();
+        return b;
+    }
+
+    private Piece rightmost(Piece node)
+    {
+        if(node == null) return null;
+        while(node.right != null) node = node.right;
+        return node;
+    }
+
+    private void extendRightmost(Piece node, int length, int lineFeeds)
+    {
+        while(node != null)
+        {
+            node.subtreeLength += length;
+            node.subtreeLineFeeds += lineFeeds;
+
+            if(node.right == null)
+            {
+                node.length += length;
+                node.lineFeeds += lineFeeds;
+            }
+
+            node = node.right;
+        }
+    }
+
+    private static int length(Piece node)
+    {
+        return node == null ? 0 : node.subtreeLength;
+    }
+
+    private static int lineFeeds(Piece node)
+    {
+        return node == null ? 0 : node.subtreeLineFeeds;
+    }
+
+    private static class Piece
+    {
+        private final Buffer buffer;
+        private final int start;
+        private int length;
+        private int lineFeeds;
+        private final int priority;
+
+        private Piece left;
+        private Piece right;
+        private int subtreeLength;
+        private int subtreeLineFeeds;
+
+        private Piece(Buffer buffer, int start, int length, int lineFeeds, int priority)
+        {
+            this.buffer = buffer;
+            this.start = start;
+            this.length = length;
+            this.lineFeeds = lineFeeds;
+            this.priority = priority;
+            update();
+        }
+
+        private void update()
+        {
+            subtreeLength = length(left) + length + length(right);
+            subtreeLineFeeds = lineFeeds(left) + lineFeeds + lineFeeds(right);
+        }
+    }
+
+    //==================================================================
+    //                      Append-only buffers
+    //==================================================================
+
+    private static class Buffer
+    {
+        private final StringBuilder text = new StringBuilder();
+        private int[] lineFeeds = new int[16];
+        private int lineFeedCount;
+
+        private void append(String s)
+        {
+            int offset = text.length();
+            text.append(s);
+
+            for(int i = s.indexOf('\n'); i >= 0; i = s.indexOf('\n', i + 1))
+            {
+                addLineFeed(offset + i);
+            }
+        }
+
+        private void append(char c)
+        {
+            if(c == '\n') addLineFeed(text.length());
+            text.append(c);
+        }
+
+        private Buffer copy()
+        {
+            Buffer copy = new Buffer();
+            copy.text.append(text);
+            copy.lineFeeds = Arrays.copyOf(lineFeeds, lineFeeds.length);
+            copy.lineFeedCount = lineFeedCount;
+            return copy;
+        }
+
+        private void addLineFeed(int position)
+        {
+            if(lineFeedCount == lineFeeds.length)
+                lineFeeds = Arrays.copyOf(lineFeeds, lineFeedCount * 2);
+
+            lineFeeds[lineFeedCount++] = position;
+        }
+
+        // Number of line feeds positioned strictly before the given buffer position.
+        private int lineFeedsBefore(int position)
+        {
+            int low = 0;
+            int high = lineFeedCount;
+
+            while(low < high)
+            {
+                int middle = (low + high) >>> 1;
+                if(lineFeeds[middle] < position) low = middle + 1;
+                else high = middle;
+            }
+
+            return low;
+        }
+
+        private int lineFeedsIn(int start, int end)
+        {
+            return lineFeedsBefore(end) - lineFeedsBefore(start);
+        }
+    }
+}
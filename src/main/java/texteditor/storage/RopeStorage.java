@@ -0,0 +1,363 @@
+package texteditor.storage;
+
+import texteditor.location.Location;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+public class RopeStorage implements TextStorage
+{
+    private static final int MAX_LEAF_LENGTH = 1024;
+
+    private Node root;
+
+    public RopeStorage()
+    {
+        this(new Leaf(""));
+    }
+
+    private RopeStorage(Node root)
+    {
+        this.root = root;
+    }
+
+    //==================================================================
+    //                          Reading
+    //==================================================================
+
+    @Override
+    public int getLineCount()
+    {
+        return root.lineFeeds + 1;
+    }
+
+    @Override
+    public String getLine(int row)
+    {
+        Objects.checkIndex(row, getLineCount());
+        return text(lineStart(row), lineEnd(row));
+    }
+
+    @Override
+    public int getLineLength(int row)
+    {
+        Objects.checkIndex(row, getLineCount());
+        return lineEnd(row) - lineStart(row);
+    }
+
+    @Override
+    public char charAt(int row, int column)
+    {
+        int offset = lineStart(row) + column;
+        Node node = root;
+
+        while(node instanceof Branch)
+        {
+            Branch branch = (Branch) node;
+
+            if(offset < branch.left.length)
+            {
+                node = branch.left;
+            }
+            else
+            {
+                offset -= branch.left.length;
+                node = branch.right;
+            }
+        }
+
+        return ((Leaf) node).text.charAt(offset);
+    }
+
+    @Override
+    public String getText(Location start, Location end)
+    {
+        return text(offsetOf(start), offsetOf(end));
+    }
+
+    // Nodes are immutable, so a snapshot only has to remember the current root.
+    @Override
+    public TextStorage snapshot()
+    {
+        return new RopeStorage(root);
+    }
+
+    //==================================================================
+    //                          Modifying
+    //==================================================================
+
+    @Override
+    public void insert(Location location, String text)
+    {
+        if(text.isEmpty()) return;
+
+        Node[] parts = split(root, offsetOf(location));
+        root = join(join(parts[0], build(text)), parts[1]);
+    }
+
+    @Override
+    public void delete(Location start, Location end)
+    {
+        int startOffset = offsetOf(start);
+        int endOffset = offsetOf(end);
+        if(startOffset >= endOffset) return;
+
+        Node[] head = split(root, startOffset);
+        Node[] tail = split(head[1], endOffset - startOffset);
+        root = orEmpty(join(head[0], tail[1]));
+    }
+
+    @Override
+    public void setLines(List<String> lines)
+    {
+        List<Node> leaves = new ArrayList<>();
+        StringBuilder sb = new StringBuilder(MAX_LEAF_LENGTH);
+
+        for(int i = 0; i < lines.size(); i++)
+        {
+            String line = i == 0 ? lines.get(i) : '\n' + lines.get(i);
+
+            for(int start = 0; start < line.length(); )
+            {
+                int end = Math.min(line.length(), start + MAX_LEAF_LENGTH - sb.length());
+                sb.append(line, start, end);
+                start = end;
+
+                if(sb.length() == MAX_LEAF_LENGTH)
+                {
+                    leaves.add(new Leaf(sb.toString()));
+                    sb.setLength(0);
+                }
+            }
+        }
+
+        if(sb.length() > 0) leaves.add(new Leaf(sb.toString()));
+        root = orEmpty(build(leaves, 0, leaves.size()));
+    }
+
+    //==================================================================
+    //                      Offset calculations
+    //==================================================================
+
+    private int offsetOf(Location location)
+    {
+        return lineStart(location.row) + location.column;
+    }
+
+    private int lineStart(int row)
+    {
+        return row == 0 ? 0 : lineFeedOffset(row) + 1;
+    }
+
+    private int lineEnd(int row)
+    {
+        return row + 1 < getLineCount() ? lineFeedOffset(row + 1) : root.length;
+    }
+
+    // Document offset of the n-th line feed, counting from 1.
+    private int lineFeedOffset(int n)
+    {
+        Node node = root;
+        int offset = 0;
+
+        while(node instanceof Branch)
+        {
+            Branch branch = (Branch) node;
+
+            if(n <= branch.left.lineFeeds)
+            {
+                node = branch.left;
+            }
+            else
+            {
+                n -= branch.left.lineFeeds;
+                offset += branch.left.length;
+                node = branch.right;
+            }
+        }
+
+        String text = ((Leaf) node).text;
+        int index = -1;
+        while(n-- > 0) index = text.indexOf('\n', index + 1);
+
+        return offset + index;
+    }
+
+    private String text(int start, int end)
+    {
+        StringBuilder sb = new StringBuilder(end - start);
+        appendText(root, start, end, sb);
+        return sb.toString();
+    }
+
+    private void appendText(Node node, int start, int end, StringBuilder sb)
+    {
+        if(start >= end) return;
+
+        if(node instanceof Leaf)
+        {
+            sb.append(((Leaf) node).text, start, end);
+            return;
+        }
+
+        Branch branch = (Branch) node;
+        int leftLength = branch.left.length;
+
+        if(start < leftLength)
+            appendText(branch.left, start, Math.min(end, leftLength), sb);
+
+        if(end > leftLength)
+            appendText(branch.right, Math.max(start, leftLength) - leftLength, end - leftLength, sb);
+    }
+
+    //==================================================================
+    //                  Balanced tree operations
+    //==================================================================
+
+    private static Node build(String text)
+    {
+        List<Node> leaves = new ArrayList<>();
+
+        for(int start = 0; start < text.length(); start += MAX_LEAF_LENGTH)
+        {
+            leaves.add(new Leaf(text.substring(start, Math.min(text.length(), start + MAX_LEAF_LENGTH))));
+        }
+
+        return build(leaves, 0, leaves.size());
+    }
+
+    private static Node build(List<Node> leaves, int start, int end)
+    {
+        if(start >= end) return null;
+        if(end - start == 1) return leaves.get(start);
+
+        int middle = (start + end) >>> 1;
+        return new Branch(build(leaves, start, middle), build(leaves, middle, end));
+    }
+
+    private static Node[] split(Node node, int offset)
+    {
+        if(offset <= 0) return new Node[] {null, node};
+        if(offset >= node.length) return new Node[] {node, null};
+
+        if(node instanceof Leaf)
+        {
+            String text = ((Leaf) node).text;
+            return new Node[] {new Leaf(text.substring(0, offset)), new Leaf(text.substring(offset))};
+        }
+
+        Branch branch = (Branch) node;
+
+        if(offset <= branch.left.length)
+        {
+            Node[] parts = split(branch.left, offset);
+            return new Node[] {parts[0], join(parts[1], branch.right)};
+        }
+
+        Node[] parts = split(branch.right, offset - branch.left.length);
+        return new Node[] {join(branch.left, parts[0]), parts[1]};
+    }
+
+    private static Node join(Node left, Node right)
+    {
+        if(left == null) return right;
+        if(right == null) return left;
+
+        if(left instanceof Leaf && right instanceof Leaf && left.length + right.length <= MAX_LEAF_LENGTH)
+            return new Leaf(((Leaf) left).text + ((Leaf) right).text);
+
+        if(left.height > right.height + 1)
+        {
+            Branch branch = (Branch) left;
+            return balance(branch.left, join(branch.right, right));
+        }
+
+        if(right.height > left.height + 1)
+        {
+            Branch branch = (Branch) right;
+            return balance(join(left, branch.left), branch.right);
+        }
+
+        return new Branch(left, right);
+    }
+
+    private static Node balance(Node left, Node right)
+    {
+        if(left.height > right.height + 1)
+        {
+            Branch l = (Branch) left;
+            if(l.left.height >= l.right.height)
+                return new Branch(l.left, new Branch(l.right, right));
+
+            Branch lr = (Branch) l.right;
+            return new Branch(new Branch(l.left, lr.left), new Branch(lr.right, right));
+        }
+
+        if(right.height > left.height + 1)
+        {
+            Branch r = (Branch) right;
+            if(r.right.height >= r.left.height)
+                return new Branch(new Branch(left, r.left), r.right);
+
+            Branch rl = (Branch) r.left;
+            return new Branch(new Branch(left, rl.left), new Branch(rl.right, r.right));
+        }
+
+        return new Branch(left, right);
+    }
+
+    private static Node orEmpty(Node node)
+    {
+        return node == null ? new Leaf("") : node;
+    }
+
+    //==================================================================
+    //                      Immutable nodes
+    //==================================================================
+
+    private abstract static class Node
+    {
+        final int length;
+        final int lineFeeds;
+        final int height;
+
+        private Node(int length, int lineFeeds, int height)
+        {
+            this.length = length;
+            this.lineFeeds = lineFeeds;
+            this.height = height;
+        }
+    }
+
+    private static final class Leaf extends Node
+    {
+        private final String text;
+
+        private Leaf(String text)
+        {
+            super(text.length(), countLineFeeds(text), 0);
+            this.text = text;
+        }
+
+        private static int countLineFeeds(String text)
+        {
+            int count = 0;
+            for(int i = text.indexOf('\n'); i >= 0; i = text.indexOf('\n', i + 1)) count++;
+            return count;
+        }
+    }
+
+    private static final class Branch extends Node
+    {
+        private final Node left;
+        private final Node right;
+
+        private Branch(Node left, Node right)
+        {
+            super(left.length + right.length, left.lineFeeds + right.lineFeeds, Math.max(left.height, right.height) + 1);
+            this.left = left;
+            this.right = right;
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package texteditor.storage;
+
+import java.util.function.Supplier;
+
+public enum StorageType
+{
+    LINE_LIST(LineListStorage::new),
+    PIECE_TABLE(PieceTableStorage::new),
+    ROPE(RopeStorage::new);
+
+    private final Supplier<TextStorage> factory;
+
+    StorageType(Supplier<TextStorage> factory)
+    {
+        this.factory = factory;
+    }
+
+    public TextStorage create()
+    {
+        return factory.get();
+    }
+}
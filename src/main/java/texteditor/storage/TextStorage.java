@@ -0,0 +1,170 @@
+package texteditor.storage;
+
+import texteditor.location.Location;
+
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+public interface TextStorage
+{
+    int getLineCount();
+    String getLine(int row);
+    void insert(Location location, String text);
+    void delete(Location start, Location end);
+    void setLines(List<String> lines);
+
+    /**
+     * Replaces the lines in [start, end) with the given lines. The document always keeps at least one line.
+     */
+    default void replaceLines(int start, int end, List<String> lines)
+    {
+        int lineCount = getLineCount();
+
+        if(start == 0 && end == lineCount)
+        {
+            setLines(lines);
+            return;
+        }
+
+        String text = String.join("\n", lines);
+
+        if(start == end)
+        {
+            if(lines.isEmpty()) return;
+
+            if(start < lineCount) insert(new Location(start, 0), text + '\n');
+            else insert(new Location(start - 1, getLineLength(start - 1)), '\n' + text);
+        }
+        else if(lines.isEmpty())
+        {
+            if(end < lineCount) delete(new Location(start, 0), new Location(end, 0));
+            else delete(new Location(start - 1, getLineLength(start - 1)), new Location(end - 1, getLineLength(end - 1)));
+        }
+        else
+        {
+            Location first = new Location(start, 0);
+            delete(first, new Location(end - 1, getLineLength(end - 1)));
+            insert(first, text);
+        }
+    }
+
+    /**
+     * Returns the characters of a line for reading them right away. Unlike getLine, storages may return
+     * a view of their own buffer instead of a new string; it is only valid until the next change.
+     */
+    default CharSequence getLineChars(int row)
+    {
+        return getLine(row);
+    }
+
+    default int getLineLength(int row)
+    {
+        return getLine(row).length();
+    }
+
+    default char charAt(int row, int column)
+    {
+        return getLine(row).charAt(column);
+    }
+
+    default void insert(Location location, char c)
+    {
+        insert(location, String.valueOf(c));
+    }
+
+    /**
+     * Registers a listener that is notified when lines are appended without an edit,
+     * for example when lines of a file become available while it is being indexed.
+     * The listener receives the line count from before the append, or 0 if the single
+     * empty line shown until then was only a placeholder.
+     */
+    default void setAppendListener(IntConsumer listener)
+    {
+    }
+
+    /**
+     * Returns false while lines are still to be appended through the append listener. Until then
+     * the lines cannot stand for the whole document, for example when comparing it with other lines.
+     */
+    default boolean isComplete()
+    {
+        return true;
+    }
+
+    /**
+     * Returns true when lines are only read from their source as they are asked for, so that reading
+     * every line of the document costs far more than the storage itself, as for a mapped file.
+     */
+    default boolean isLazy()
+    {
+        return false;
+    }
+
+    default String getText(Location start, Location end)
+    {
+        if(start.row == end.row) return getLine(start.row).substring(start.column, end.column);
+
+        StringBuilder sb = new StringBuilder();
+        sb.append(getLine(start.row), start.column, getLineLength(start.row));
+
+        for(int row = start.row + 1; row < end.row; row++)
+        {
+            sb.append('\n').append(getLine(row));
+        }
+
+        sb.append('\n').append(getLine(end.row), 0, end.column);
+        return sb.toString();
+    }
+
+    /**
+     * Returns an independent copy of the current content that may be read from another thread.
+     */
+    default TextStorage snapshot()
+    {
+        TextStorage copy = new LineListStorage();
+        copy.setLines(getLines());
+        return copy;
+    }
+
+    /**
+     * Returns a storage with the same content for one more thread to read a snapshot with.
+     * Storages that do not change any state while being read can simply return themselves.
+     */
+    default TextStorage concurrentReader()
+    {
+        return this;
+    }
+
+    default void writeTo(LineSink sink) throws IOException
+    {
+        int lineCount = getLineCount();
+
+        for(int row = 0; row < lineCount; row++)
+        {
+            sink.writeLine(getLine(row));
+        }
+    }
+
+    /**
+     * Returns a read-only view of the lines. The view reflects later changes to the storage.
+     */
+    default List<String> getLines()
+    {
+        return new AbstractList<>()
+        {
+            @Override
+            public String get(int index)
+            {
+                return getLine(index);
+            }
+
+            @Override
+            public int size()
+            {
+                return getLineCount();
+            }
+        };
+    }
+}